@@ -0,0 +1,53 @@
+package net.orfdev;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class Base62Benchmark {
+
+	// a 5 character code and a full width 11 character one
+	@Param({ "99424938", "4611686018427387903" })
+	public long number;
+
+	private String code;
+	private byte[] codeBytes;
+	private final char[] buffer = new char[Base62.MAX_LENGTH];
+
+	@Setup
+	public void setup() {
+		code = Base62.encode(number);
+		codeBytes = code.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	@Benchmark
+	public String encode() {
+		return Base62.encode(number);
+	}
+
+	@Benchmark
+	public long decode() {
+		return Base62.decode(code);
+	}
+
+	@Benchmark
+	public int encodeIntoBuffer() {
+		return Base62.encode(number, buffer, 0);
+	}
+
+	@Benchmark
+	public long decodeBytes() {
+		return Base62.decode(codeBytes, 0, codeBytes.length);
+	}
+}
@@ -0,0 +1,54 @@
+package net.orfdev;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Cost of producing a short url code: the random number the controller used to draw per request, against the
+ * block leasing {@link SequenceBlockIdAllocator}, run from several threads to show contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class IdAllocationBenchmark {
+
+	private SequenceBlockIdAllocator allocator;
+
+	@Setup
+	public void setup() {
+		DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:hsqldb:mem:idbench", "SA", "");
+		allocator = new SequenceBlockIdAllocator();
+		ReflectionTestUtils.setField(allocator, "jdbctemplate", new JdbcTemplate(dataSource));
+		ReflectionTestUtils.setField(allocator, "blockSize", 10000);
+		ReflectionTestUtils.setField(allocator, "scrambleKey", "0x2545F4914F6CDD1D");
+		ReflectionTestUtils.setField(allocator, "meterRegistry", new SimpleMeterRegistry());
+		allocator.init();
+	}
+
+	@Benchmark
+	public String randomCode() {
+		long random = new Random().nextLong();
+		if (random < 0) random = random * -1;
+		return Base62.encode(random);
+	}
+
+	@Benchmark
+	public String allocatedCode() {
+		return Base62.encode(allocator.nextId());
+	}
+}
@@ -0,0 +1,59 @@
+package net.orfdev;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Overhead the rate limiter adds to a shorten request: a single contended {@link TokenBucket}, and the lookup of a
+ * client's bucket among many, from several threads. Rates are high enough that requests are admitted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class RateLimiterBenchmark {
+
+	private static final int CLIENTS = 50000;
+
+	private TokenBucket bucket;
+	private ShortenRateLimiter limiter;
+	private String[] clients;
+
+	@Setup
+	public void setup() {
+		bucket = new TokenBucket(1e9, Integer.MAX_VALUE / 2, System.nanoTime());
+		limiter = new ShortenRateLimiter();
+		ReflectionTestUtils.setField(limiter, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(limiter, "clientRate", 1e9);
+		ReflectionTestUtils.setField(limiter, "clientBurst", 1000);
+		ReflectionTestUtils.setField(limiter, "maxClients", CLIENTS * 2);
+		limiter.init();
+		clients = new String[CLIENTS];
+		for (int i = 0; i < CLIENTS; i++) {
+			clients[i] = "10." + (i >> 16) + "." + ((i >> 8) & 0xff) + "." + (i & 0xff);
+		}
+	}
+
+	@Benchmark
+	public long sharedBucket() {
+		return bucket.tryAcquire(System.nanoTime());
+	}
+
+	@Benchmark
+	public long clientBucket() {
+		long now = System.nanoTime();
+		return limiter.bucketFor(clients[ThreadLocalRandom.current().nextInt(CLIENTS)], now).tryAcquire(now);
+	}
+}
@@ -0,0 +1,83 @@
+package net.orfdev;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * End to end redirect lookup through {@link UrlMappingsController#mapUrl} against an in-memory HSQL database
+ * preloaded with {@code tableSize} mappings. {@code cacheSize} lets the same run compare the cached path with
+ * one where almost every lookup reaches the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RedirectBenchmark {
+
+	private static final int LOAD_BATCH_SIZE = 1000;
+
+	@Param({ "10000", "1000000" })
+	public int tableSize;
+
+	@Param({ "16", "1000000" })
+	public int cacheSize;
+
+	private ConfigurableApplicationContext context;
+	private UrlMappingsController controller;
+	private String[] codes;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		context = new SpringApplicationBuilder(Application.class)
+				.web(WebApplicationType.NONE)
+				.properties("spring.datasource.url=jdbc:hsqldb:mem:redirectbench" + tableSize + "_" + cacheSize,
+						"spring.datasource.username=SA",
+						"urlshort.cache.maximum-size=" + cacheSize)
+				.run();
+		controller = context.getBean(UrlMappingsController.class);
+		UrlShortDatabase shortUrlDb = context.getBean(UrlShortDatabase.class);
+		IdAllocator idAllocator = context.getBean(IdAllocator.class);
+
+		codes = new String[tableSize];
+		List<UrlMapping> batch = new ArrayList<>(LOAD_BATCH_SIZE);
+		for (int i = 0; i < tableSize; i++) {
+			long id = idAllocator.nextId();
+			codes[i] = Base62.encode(id);
+			batch.add(new UrlMapping(id, "https://www.orpheussoftware.co.uk/campaign/" + i + "?utm_source=bench"));
+			if (batch.size() == LOAD_BATCH_SIZE || i == tableSize - 1) {
+				shortUrlDb.insertBatch(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public MockHttpServletResponse mapUrl() throws Exception {
+		String code = codes[ThreadLocalRandom.current().nextInt(codes.length)];
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		controller.mapUrl(code, new MockHttpServletRequest(), response);
+		return response;
+	}
+}
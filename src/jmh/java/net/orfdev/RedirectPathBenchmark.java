@@ -0,0 +1,88 @@
+package net.orfdev;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Controller;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.context.WebApplicationContext;
+
+/**
+ * Throughput of a redirect through the whole DispatcherServlet: the direct Location writing done by
+ * {@link UrlMappingsController#mapUrl} against the "redirect:" view name it used to return, which goes through
+ * view resolution. Both look the code up through the same (warm) cache so only the response handling differs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RedirectPathBenchmark {
+
+	private ConfigurableApplicationContext context;
+	private MockMvc mvc;
+	private String code;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		context = new SpringApplicationBuilder(Application.class, LegacyRedirectController.class)
+				.web(WebApplicationType.SERVLET)
+				.properties("server.port=0", "spring.datasource.url=jdbc:hsqldb:mem:redirectpathbench", "spring.datasource.username=SA")
+				.run();
+		mvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+		long id = context.getBean(IdAllocator.class).nextId();
+		code = Base62.encode(id);
+		context.getBean(UrlShortDatabase.class).insert(id, "https://www.orpheussoftware.co.uk/about");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public MvcResult directRedirect() throws Exception {
+		return mvc.perform(get("/{shortUrl}", code)).andReturn();
+	}
+
+	@Benchmark
+	public MvcResult viewRedirect() throws Exception {
+		return mvc.perform(get("/legacy/{shortUrl}", code)).andReturn();
+	}
+
+
+	/**
+	 * The redirect handler as it was before the fast path.
+	 */
+	@Controller
+	public static class LegacyRedirectController {
+
+		private final UrlShortDatabase shortUrlDb;
+
+		public LegacyRedirectController(UrlShortDatabase shortUrlDb) {
+			this.shortUrlDb = shortUrlDb;
+		}
+
+		@RequestMapping("/legacy/{shortUrl}")
+		public String mapUrl(@PathVariable(value = "shortUrl") String shortUrl) {
+			long id = Base62.tryDecodeCanonical(shortUrl);
+			String longUrl = id < 0 ? null : shortUrlDb.lookupByShortUrl(id);
+			return "redirect:" + (longUrl == null ? "" : longUrl);
+		}
+	}
+}
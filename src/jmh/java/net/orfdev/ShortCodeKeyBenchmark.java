@@ -0,0 +1,133 @@
+package net.orfdev;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Cost of keying short urls by their Base62 string (the old varchar(32) column and String keyed LRU) against keying
+ * them by the number the code encodes (BIGINT column and {@link ShortUrlCache}). Lookups start from the code as it
+ * arrives on a request, so the numeric side includes decoding it.
+ *
+ * Every row points at the same long url so that the heap figures printed during setup are down to the keys and the
+ * structures holding them. Loading 10M rows into in-memory HSQL needs a large heap, hence the fork settings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms12g", "-Xmx12g" })
+public class ShortCodeKeyBenchmark {
+
+	private static final int LOAD_BATCH_SIZE = 10000;
+	private static final String LONG_URL = "https://www.orpheussoftware.co.uk/campaign?utm_source=bench";
+
+	@Param({ "varchar", "bigint" })
+	public String keyType;
+
+	@Param({ "10000000" })
+	public int rows;
+
+	private JdbcTemplate jdbc;
+	private Map<String, String> stringCache;
+	private ShortUrlCache longCache;
+	private String[] codes;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		IdScrambler scrambler = new IdScrambler(0x2545F4914F6CDD1DL);
+		codes = new String[rows];
+		for (int i = 0; i < rows; i++) {
+			codes[i] = Base62.encode(scrambler.scramble(i + 1));
+		}
+
+		long heapBefore = usedHeap();
+		jdbc = new JdbcTemplate(new DriverManagerDataSource("jdbc:hsqldb:mem:keybench" + keyType, "SA", ""));
+		if ("varchar".equals(keyType)) {
+			jdbc.execute("CREATE TABLE urls (short_url varchar(32) Primary Key, long_url varchar(256))");
+		} else {
+			jdbc.execute("CREATE TABLE urls (id BIGINT Primary Key, long_url varchar(256))");
+		}
+		List<Object[]> batch = new ArrayList<>(LOAD_BATCH_SIZE);
+		for (int i = 0; i < rows; i++) {
+			Object key = "varchar".equals(keyType) ? codes[i] : (Object) Base62.decode(codes[i]);
+			batch.add(new Object[] { key, LONG_URL });
+			if (batch.size() == LOAD_BATCH_SIZE || i == rows - 1) {
+				jdbc.batchUpdate("INSERT INTO urls Values (?,?)", batch);
+				batch.clear();
+			}
+		}
+		long heapAfterTable = usedHeap();
+
+		if ("varchar".equals(keyType)) {
+			stringCache = new LinkedHashMap<>(16, 0.75f, true);
+			for (String code : codes) {
+				// a copy, like the key a request would have put in the cache
+				stringCache.put(new String(code), LONG_URL);
+			}
+		} else {
+			longCache = new ShortUrlCache();
+			ReflectionTestUtils.setField(longCache, "maximumSize", rows);
+			ReflectionTestUtils.setField(longCache, "ttlSeconds", 3600L);
+			ReflectionTestUtils.setField(longCache, "negativeTtlSeconds", 30L);
+			longCache.init();
+			for (String code : codes) {
+				longCache.put(Base62.decode(code), LONG_URL);
+			}
+		}
+		long heapAfterCache = usedHeap();
+
+		System.out.printf("%n%s keys, %d rows: table uses %d MB of heap, cache %d MB%n", keyType, rows,
+				(heapAfterTable - heapBefore) / (1024 * 1024), (heapAfterCache - heapAfterTable) / (1024 * 1024));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		jdbc.execute("SHUTDOWN");
+	}
+
+	@Benchmark
+	public String tableLookup() {
+		String code = codes[ThreadLocalRandom.current().nextInt(codes.length)];
+		if ("varchar".equals(keyType)) {
+			return jdbc.query("SELECT long_url FROM urls WHERE short_url = ?", rs -> rs.next() ? rs.getString(1) : null, code);
+		}
+		return jdbc.query("SELECT long_url FROM urls WHERE id = ?", rs -> rs.next() ? rs.getString(1) : null,
+				Base62.tryDecodeCanonical(code));
+	}
+
+	@Benchmark
+	public String cacheLookup() {
+		String code = codes[ThreadLocalRandom.current().nextInt(codes.length)];
+		if ("varchar".equals(keyType)) {
+			synchronized (stringCache) {
+				return stringCache.get(code);
+			}
+		}
+		ShortUrlCache.Entry entry = longCache.get(Base62.tryDecodeCanonical(code));
+		return entry == null ? null : entry.getLongUrl();
+	}
+
+	private static long usedHeap() {
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
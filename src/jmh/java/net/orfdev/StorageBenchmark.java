@@ -0,0 +1,98 @@
+package net.orfdev;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Lookup latency of the two {@link UrlStore} backends, with no cache in front. Heap used after loading is printed
+ * during setup; run with -prof gc for allocation rates. For the tens of millions case pass
+ * {@code -p mappings=20000000} to the JMH runner, and give the JVM enough heap for the JDBC side to load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StorageBenchmark {
+
+	private static final int LOAD_BATCH_SIZE = 10000;
+
+	@Param({ "jdbc", "mapped" })
+	public String storage;
+
+	@Param({ "1000000" })
+	public int mappings;
+
+	private UrlStore store;
+	private long[] ids;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		long heapBefore = usedHeap();
+		if ("jdbc".equals(storage)) {
+			JdbcUrlStore jdbcStore = new JdbcUrlStore();
+			DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:hsqldb:mem:storagebench" + mappings, "SA", "");
+			ReflectionTestUtils.setField(jdbcStore, "jdbctemplate", new JdbcTemplate(dataSource));
+			jdbcStore.constructDB();
+			store = jdbcStore;
+		} else {
+			MappedUrlStore mappedStore = new MappedUrlStore();
+			ReflectionTestUtils.setField(mappedStore, "directory", Files.createTempDirectory("storagebench").toString());
+			ReflectionTestUtils.setField(mappedStore, "initialCapacity", (long) mappings * 2);
+			mappedStore.open();
+			store = mappedStore;
+		}
+
+		IdScrambler scrambler = new IdScrambler(0x2545F4914F6CDD1DL);
+		ids = new long[mappings];
+		List<UrlMapping> batch = new ArrayList<>(LOAD_BATCH_SIZE);
+		for (int i = 0; i < mappings; i++) {
+			ids[i] = scrambler.scramble(i + 1);
+			batch.add(new UrlMapping(ids[i], "https://www.orpheussoftware.co.uk/campaign/" + i + "?utm_source=bench&utm_medium=email"));
+			if (batch.size() == LOAD_BATCH_SIZE || i == mappings - 1) {
+				store.insertBatch(batch);
+				batch.clear();
+			}
+		}
+		System.out.printf("%n%s backend holding %d mappings uses %d MB more heap (ids array included)%n",
+				storage, mappings, (usedHeap() - heapBefore) / (1024 * 1024));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		if (store instanceof MappedUrlStore) {
+			((MappedUrlStore) store).close();
+		}
+	}
+
+	@Benchmark
+	public String findLongUrl() {
+		return store.findLongUrl(ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+	}
+
+	@Benchmark
+	public String findMissing() {
+		return store.findLongUrl(ThreadLocalRandom.current().nextLong(1L << 62));
+	}
+
+	private static long usedHeap() {
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,122 @@
+package net.orfdev;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * What the origin + UTF-8 encoding of long urls saves, on a synthetic corpus shaped like our traffic: a handful of
+ * origins, most urls on the first few, campaign paths and long tracking query strings.
+ *
+ * Setup prints the heap taken by the same urls held as Strings and in the {@link ShortUrlCache}, and the bytes the
+ * urls table stores for them in long_url against origin_id + url_rest. The benchmark is the cost of a cache hit
+ * now that the url is decoded on each one. For the 10M corpus pass {@code -p urls=10000000} and a heap of a few GB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UrlEncodingBenchmark {
+
+	private static final String[] ORIGINS = {
+			"https://www.orpheussoftware.co.uk", "https://shop.orpheussoftware.co.uk", "https://blog.orpheussoftware.co.uk",
+			"http://www.orpheussoftware.co.uk", "https://support.orpheussoftware.co.uk", "https://careers.orpheussoftware.co.uk",
+			"https://events.orpheussoftware.co.uk", "https://docs.orpheussoftware.co.uk" };
+	private static final String[] SECTIONS = { "campaign", "products", "news", "offers", "about", "help" };
+	private static final String[] SOURCES = { "newsletter", "twitter", "facebook", "google", "linkedin" };
+	private static final String[] MEDIUMS = { "email", "social", "cpc", "display" };
+
+	@Param({ "1000000" })
+	public int urls;
+
+	private ShortUrlCache cache;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		long heapBefore = usedHeap();
+		String[] corpus = new String[urls];
+		Random random = new Random(42);
+		long fullBytes = 0;
+		long compactBytes = 0;
+		for (int i = 0; i < urls; i++) {
+			corpus[i] = url(random, i);
+			fullBytes += corpus[i].getBytes(StandardCharsets.UTF_8).length;
+			// a 4 byte origin_id, the rest of the url in the same encoding as long_url
+			compactBytes += 4 + UrlValidator.parseUrl(corpus[i]).getPathAndQuery().getBytes(StandardCharsets.UTF_8).length;
+		}
+		long stringHeap = usedHeap() - heapBefore;
+
+		cache = new ShortUrlCache();
+		ReflectionTestUtils.setField(cache, "maximumSize", urls * 2);
+		ReflectionTestUtils.setField(cache, "ttlSeconds", 3600L);
+		ReflectionTestUtils.setField(cache, "negativeTtlSeconds", 30L);
+		cache.init();
+		long emptyCacheHeap = usedHeap();
+		for (int i = 0; i < urls; i++) {
+			cache.put(i, corpus[i]);
+		}
+		corpus = null;
+		long cacheHeap = usedHeap() - emptyCacheHeap + stringHeap;
+
+		System.out.printf("%n%d urls: %d MB as Strings, %d MB as cache entries (origins shared, rest in UTF-8)%n",
+				urls, stringHeap / (1024 * 1024), cacheHeap / (1024 * 1024));
+		System.out.printf("urls table: %d MB of long_url, %d MB of origin_id + url_rest (%.0f%% less)%n",
+				fullBytes / (1024 * 1024), compactBytes / (1024 * 1024), 100.0 * (fullBytes - compactBytes) / fullBytes);
+	}
+
+	/**
+	 * One url of the corpus; origins and sections are skewed so a few of them cover most urls.
+	 */
+	static String url(Random random, int i) {
+		StringBuilder url = new StringBuilder(200);
+		url.append(ORIGINS[skewed(random, ORIGINS.length)]).append('/').append(SECTIONS[skewed(random, SECTIONS.length)])
+				.append('/').append(Integer.toString(i, 36));
+		if (random.nextInt(10) < 7) {
+			url.append("?utm_source=").append(SOURCES[random.nextInt(SOURCES.length)])
+					.append("&utm_medium=").append(MEDIUMS[random.nextInt(MEDIUMS.length)])
+					.append("&utm_campaign=spring-").append(random.nextInt(50));
+			if (random.nextBoolean()) {
+				url.append("&gclid=").append(Base62.encode(random.nextLong() >>> 1)).append(Base62.encode(random.nextLong() >>> 1));
+			}
+		}
+		return url.toString();
+	}
+
+	// index i with probability roughly proportional to 1 / (i + 1)
+	private static int skewed(Random random, int n) {
+		double total = 0;
+		for (int i = 1; i <= n; i++) {
+			total += 1.0 / i;
+		}
+		double pick = random.nextDouble() * total;
+		for (int i = 0; i < n; i++) {
+			pick -= 1.0 / (i + 1);
+			if (pick <= 0) {
+				return i;
+			}
+		}
+		return n - 1;
+	}
+
+	@Benchmark
+	public String cacheHit() {
+		return cache.get(ThreadLocalRandom.current().nextInt(urls)).getLongUrl();
+	}
+
+	private static long usedHeap() {
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
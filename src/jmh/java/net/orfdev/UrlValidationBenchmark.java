@@ -0,0 +1,83 @@
+package net.orfdev;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares {@link UrlValidator} with the chain of regular expressions it replaced, on ordinary urls and on
+ * inputs built to make the old patterns backtrack.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UrlValidationBenchmark {
+
+	@Param({ "valid", "invalid", "manyDots", "noTld", "overLimit" })
+	public String input;
+
+	private String url;
+	private final UrlValidator validator = new UrlValidator();
+
+	@Setup
+	public void setup() {
+		switch (input) {
+		case "valid":
+			url = "https://www.orpheussoftware.co.uk/about/90c2f90903g3q870debby21G31386g7e";
+			break;
+		case "invalid":
+			url = "https://www.example.com/about/90c2f90903g3q870debby21G31386g7e";
+			break;
+		case "manyDots":
+			url = "https://" + repeat("a.", 120) + "!";
+			break;
+		case "noTld":
+			url = "https://www.orpheussoftware" + repeat("a", 200);
+			break;
+		case "overLimit":
+			url = "https://www.orpheussoftware.co.uk/" + repeat("a/", 5000);
+			break;
+		default:
+			throw new IllegalArgumentException(input);
+		}
+	}
+
+	@Benchmark
+	public boolean singlePass() {
+		return validator.isValid(url);
+	}
+
+	@Benchmark
+	public boolean regexChain() {
+		return legacyHttpMatching(url) && legacyUrlMatching(url) && url.length() <= UtilityCheck.LIMIT_URL;
+	}
+
+	// what UrlMappingsController used to do on every request
+	private static boolean legacyHttpMatching(String url) {
+		return Pattern.compile(UtilityCheck.HTTP_HTTPS_URL_REGEX).matcher(url).find();
+	}
+
+	private static boolean legacyUrlMatching(String url) {
+		Matcher matcher = UtilityCheck.HOST_EXTRACTOR_REGEX_PATTERN.matcher(url.trim());
+		String domainName = (matcher.find() && matcher.groupCount() == 2) ? matcher.group(1) + matcher.group(2) : null;
+		boolean matchFound = domainName != null && UtilityCheck.pattern.matcher(domainName).find();
+		return Pattern.compile(UtilityCheck.URL_REGEX).matcher(url).find() && matchFound;
+	}
+
+	private static String repeat(String s, int times) {
+		StringBuilder sb = new StringBuilder(s.length() * times);
+		for (int i = 0; i < times; i++) {
+			sb.append(s);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,282 @@
+package net.orfdev;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+
+/**
+ * Load generator replaying the shape of production traffic against the application, started here on a random
+ * localhost port with the hsql profile and an in-memory database. Run it with {@code ./gradlew loadTest}.
+ *
+ * The urls table is seeded with {@code loadtest.urls} mappings through {@link UrlShortDatabase#insert}, then
+ * {@code loadtest.concurrency} threads, each on its own keep-alive connection, send requests for
+ * {@code loadtest.duration-seconds} after a warm-up of {@code loadtest.warmup-seconds}:
+ * <ul>
+ * <li>{@code loadtest.write-ratio} of them shorten through /json/shorten, {@code loadtest.duplicate-ratio} of
+ * those an already shortened url</li>
+ * <li>{@code loadtest.health-ratio} of them ask /{shortUrl}/health</li>
+ * <li>the rest are redirects, /{shortUrl}</li>
+ * </ul>
+ * Short urls are picked by a {@link ZipfSampler} with {@code loadtest.skew}.
+ *
+ * Throughput, errors and latency percentiles of each kind of request, followed by their full HdrHistogram
+ * distributions, are written to {@code loadtest.out}. Every sender waits for its answer before sending the next
+ * request. By default (closed loop) they send back to back, so once the application saturates the request rate drops
+ * instead of a queue building up, and a stall is recorded once however many requests it held back: the percentiles
+ * are only those of the requests that got sent. With {@code loadtest.rate} set (open loop) the senders share that
+ * many requests per second on a fixed schedule, and each latency is measured from the time the request was due
+ * rather than from when it went out, so the requests a slow answer delayed are charged for the wait; there must be
+ * enough connections to keep up with the rate while the application is fast. The report header says which was run.
+ *
+ * Options are given as {@code --loadtest.name=value} arguments; every other property of the application can be
+ * set the same way, eg. {@code --urlshort.cache.maximum-size=10000} to see how far the cache carries the tail.
+ */
+public class LoadTest {
+
+	private static final Logger log = LogManager.getLogger();
+
+	private static final String URL_PREFIX = "https://www.orpheussoftware.co.uk/loadtest/";
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+	private static final String[] PERCENTILE_LABELS = { "p50 ms", "p90 ms", "p99 ms", "p99.9 ms" };
+
+	enum Operation {
+		REDIRECT, HEALTH, SHORTEN
+	}
+
+	private final String baseUrl;
+	private final int urls;
+	private final double skew;
+	private final double writeRatio;
+	private final double duplicateRatio;
+	private final double healthRatio;
+	private final int concurrency;
+	// requests per second over all senders, 0 for closed loop
+	private final double rate;
+	private final long warmupSeconds;
+	private final long durationSeconds;
+	private final long randomSeed;
+	private final Path out;
+
+	private final List<String> codes = new ArrayList<>();
+	private final Recorder[] recorders = new Recorder[Operation.values().length];
+	private final LongAdder[] errors = new LongAdder[Operation.values().length];
+	private ZipfSampler zipf;
+
+
+	LoadTest(Environment env, String baseUrl) {
+		this.baseUrl = baseUrl;
+		urls = env.getProperty("loadtest.urls", Integer.class, 100000);
+		skew = env.getProperty("loadtest.skew", Double.class, 1.0);
+		writeRatio = env.getProperty("loadtest.write-ratio", Double.class, 0.01);
+		duplicateRatio = env.getProperty("loadtest.duplicate-ratio", Double.class, 0.2);
+		healthRatio = env.getProperty("loadtest.health-ratio", Double.class, 0.05);
+		concurrency = env.getProperty("loadtest.concurrency", Integer.class, 32);
+		rate = env.getProperty("loadtest.rate", Double.class, 0.0);
+		warmupSeconds = env.getProperty("loadtest.warmup-seconds", Long.class, 10L);
+		durationSeconds = env.getProperty("loadtest.duration-seconds", Long.class, 60L);
+		randomSeed = env.getProperty("loadtest.random-seed", Long.class, 42L);
+		out = Paths.get(env.getProperty("loadtest.out", "build/reports/loadtest/results.txt"));
+		for (Operation op : Operation.values()) {
+			// microseconds, 3 significant digits
+			recorders[op.ordinal()] = new Recorder(3);
+			errors[op.ordinal()] = new LongAdder();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		// HttpURLConnection otherwise keeps only 5 idle connections per host, and opens a new one for every other sender
+		System.setProperty("http.maxConnections", "10000");
+		ConfigurableApplicationContext ctx = new SpringApplicationBuilder(Application.class)
+				.profiles("hsql")
+				.properties("server.port=0", "spring.datasource.url=jdbc:hsqldb:mem:loadtest", "urlshort.ratelimit.enabled=false")
+				.run(args);
+		try {
+			Environment env = ctx.getEnvironment();
+			LoadTest test = new LoadTest(env, "http://localhost:" + env.getProperty("local.server.port"));
+			test.seed(ctx.getBean(UrlShortDatabase.class), ctx.getBean(IdAllocator.class));
+			test.run();
+		} finally {
+			ctx.close();
+		}
+	}
+
+	void seed(UrlShortDatabase database, IdAllocator idAllocator) {
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < urls; i++) {
+			long id = idAllocator.nextId();
+			database.insert(id, URL_PREFIX + i);
+			codes.add(Base62.encode(id));
+		}
+		zipf = new ZipfSampler(urls, skew);
+		log.info("Seeded {} urls in {} ms, the top 1% of them take {}% of redirects", urls, System.currentTimeMillis() - start,
+				Math.round(100 * zipf.topShare(Math.max(1, urls / 100))));
+	}
+
+	void run() throws Exception {
+		long begin = System.nanoTime();
+		long end = begin + TimeUnit.SECONDS.toNanos(warmupSeconds + durationSeconds);
+
+		ExecutorService senders = Executors.newFixedThreadPool(concurrency);
+		List<Future<?>> running = new ArrayList<>();
+		for (int i = 0; i < concurrency; i++) {
+			final int sender = i;
+			running.add(senders.submit(() -> send(sender, begin, end)));
+		}
+		log.info("Warming up for {} s with {} connections", warmupSeconds, concurrency);
+		Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+		for (Operation op : Operation.values()) {
+			// taking the interval so far drops it
+			recorders[op.ordinal()].getIntervalHistogram();
+			errors[op.ordinal()].reset();
+		}
+		log.info("Measuring for {} s", durationSeconds);
+		long measureStart = System.nanoTime();
+		for (Future<?> future : running) {
+			future.get();
+		}
+		double seconds = (System.nanoTime() - measureStart) / 1e9;
+		senders.shutdown();
+		report(seconds);
+	}
+
+	private void send(int sender, long begin, long end) {
+		Random random = new Random(randomSeed + sender);
+		long shortened = 0;
+		// open loop: this sender's requests are due every interval, staggered against the other senders'
+		long interval = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(concurrency) / rate) : 0;
+		long due = begin + interval * sender / concurrency;
+		while (System.nanoTime() < end) {
+			double pick = random.nextDouble();
+			Operation op;
+			String path;
+			if (pick < writeRatio) {
+				op = Operation.SHORTEN;
+				String longUrl = random.nextDouble() < duplicateRatio ? URL_PREFIX + zipf.sample(random)
+						: URL_PREFIX + "new/" + sender + "-" + shortened++;
+				path = "/json/shorten?url=" + encode(longUrl);
+			} else if (pick < writeRatio + healthRatio) {
+				op = Operation.HEALTH;
+				path = "/" + codes.get(zipf.sample(random)) + "/health";
+			} else {
+				op = Operation.REDIRECT;
+				path = "/" + codes.get(zipf.sample(random));
+			}
+			long start = System.nanoTime();
+			if (interval > 0) {
+				if (due > start) {
+					LockSupport.parkNanos(due - start);
+				}
+				// a sender behind schedule sends straight away, and its latencies include how late it is
+				start = due;
+				due += interval;
+			}
+			if (request(path)) {
+				recorders[op.ordinal()].recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+			} else {
+				errors[op.ordinal()].increment();
+			}
+		}
+	}
+
+	/**
+	 * @return whether the request was answered without an error status; the body is read to the end so the
+	 * connection goes back to the keep-alive pool
+	 */
+	private boolean request(String path) {
+		try {
+			HttpURLConnection con = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+			con.setInstanceFollowRedirects(false);
+			int status = con.getResponseCode();
+			try (InputStream in = status >= 400 ? con.getErrorStream() : con.getInputStream()) {
+				if (in != null) {
+					byte[] buffer = new byte[4096];
+					while (in.read(buffer) >= 0) {
+						// drained
+					}
+				}
+			}
+			return status < 400;
+		} catch (IOException ex) {
+			log.debug("Request to {} failed", path, ex);
+			return false;
+		}
+	}
+
+	private static String encode(String url) {
+		try {
+			return URLEncoder.encode(url, "UTF-8");
+		} catch (IOException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	private void report(double seconds) throws IOException {
+		if (out.getParent() != null) {
+			Files.createDirectories(out.getParent());
+		}
+		Histogram[] histograms = new Histogram[recorders.length];
+		for (Operation op : Operation.values()) {
+			histograms[op.ordinal()] = recorders[op.ordinal()].getIntervalHistogram();
+		}
+		try (PrintStream file = new PrintStream(Files.newOutputStream(out), true, "UTF-8")) {
+			for (PrintStream stream : new PrintStream[] { System.out, file }) {
+				summary(stream, histograms, seconds);
+			}
+			for (Operation op : Operation.values()) {
+				file.printf("%n%s latency distribution (ms)%n", op);
+				histograms[op.ordinal()].outputPercentileDistribution(file, 1000.0);
+			}
+		}
+		log.info("Load test results written to {}", out.toAbsolutePath());
+	}
+
+	private void summary(PrintStream stream, Histogram[] histograms, double seconds) {
+		stream.printf("%d urls, zipf skew %s, write ratio %s (%s duplicates), health ratio %s, %d connections, %.0f s measured%n",
+				urls, skew, writeRatio, duplicateRatio, healthRatio, concurrency, seconds);
+		if (rate > 0) {
+			stream.printf("open loop at %.0f req/s: latencies from when each request was due%n", rate);
+		} else {
+			stream.printf("closed loop: each connection sends once answered, latencies leave out the requests a slow answer held back%n");
+		}
+		stream.printf("%-10s %10s %8s %10s", "operation", "requests", "errors", "req/s");
+		for (String label : PERCENTILE_LABELS) {
+			stream.printf(" %9s", label);
+		}
+		stream.printf(" %9s%n", "max ms");
+		long total = 0;
+		for (Operation op : Operation.values()) {
+			Histogram histogram = histograms[op.ordinal()];
+			total += histogram.getTotalCount();
+			stream.printf("%-10s %10d %8d %10.0f", op.name().toLowerCase(), histogram.getTotalCount(), errors[op.ordinal()].sum(),
+					histogram.getTotalCount() / seconds);
+			for (double percentile : PERCENTILES) {
+				stream.printf(" %9.3f", histogram.getValueAtPercentile(percentile) / 1000.0);
+			}
+			stream.printf(" %9.3f%n", histogram.getMaxValue() / 1000.0);
+		}
+		stream.printf("%-10s %10d %8s %10.0f%n", "total", total, "", total / seconds);
+	}
+}
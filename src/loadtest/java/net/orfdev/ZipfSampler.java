@@ -0,0 +1,47 @@
+package net.orfdev;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Picks ranks 0..n-1 with probability proportional to 1 / (rank + 1)^skew, the heavy-tailed popularity of short
+ * urls: with a skew around 1 a few hundred links take most of the redirects while the rest are clicked now and then.
+ * A skew of 0 is uniform.
+ *
+ * The cumulative distribution is computed once (8 bytes per rank) and each sample is a binary search over it, so
+ * sampling is cheap and safe from any number of threads, each bringing its own Random.
+ */
+public class ZipfSampler {
+
+	private final double[] cdf;
+
+
+	public ZipfSampler(int n, double skew) {
+		if (n <= 0 || skew < 0) {
+			throw new IllegalArgumentException("Zipf needs n > 0 and skew >= 0, not n=" + n + " skew=" + skew);
+		}
+		cdf = new double[n];
+		double total = 0;
+		for (int rank = 0; rank < n; rank++) {
+			total += 1 / Math.pow(rank + 1, skew);
+			cdf[rank] = total;
+		}
+		for (int rank = 0; rank < n; rank++) {
+			cdf[rank] /= total;
+		}
+	}
+
+	public int sample(Random random) {
+		int found = Arrays.binarySearch(cdf, random.nextDouble());
+		int rank = found >= 0 ? found : -found - 1;
+		// rounding can leave the last entry a hair under 1
+		return Math.min(rank, cdf.length - 1);
+	}
+
+	/**
+	 * @return the share of samples falling on the most popular ranks, up to the given count
+	 */
+	public double topShare(int ranks) {
+		return cdf[Math.min(ranks, cdf.length) - 1];
+	}
+}
@@ -1,9 +1,18 @@
 package net.orfdev;
 
+import java.nio.ByteBuffer;
+
 /**
  * Class to encode long numbers as Strings using base 62
- * 
+ *
  * From https://gist.github.com/subchen/11200812
+ *
+ * Besides the String based methods there are variants that encode into, and decode from, caller supplied
+ * char[], byte[] (ASCII) and ByteBuffer so the redirect path can work on request bytes without creating
+ * intermediate Strings.
+ *
+ * Fixed width variants left pad with '0' and use the same digits in ASCII order (0-9A-Za-z), so that codes of one
+ * width sort as Strings in numeric order; they are read back with {@link #decodeFixed}, not {@link #decode}.
  */
 public class Base62 {
 
@@ -11,48 +20,244 @@ public class Base62 {
     private static final int BASE = digitsChar.length;
     private static final int FAST_SIZE = 'z';
     private static final int[] digitsIndex = new int[FAST_SIZE + 1];
+    // the same digits in ASCII order, for the fixed width codes
+    private static final char[] sortableDigitsChar = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".toCharArray();
+    private static final int[] sortableDigitsIndex = new int[FAST_SIZE + 1];
+
+    /** Length of the longest code, the encoding of Long.MAX_VALUE */
+    public static final int MAX_LENGTH = 11;
+
+    // POWERS[i] = 62^i, up to the largest power that fits in a long
+    private static final long[] POWERS = new long[MAX_LENGTH];
+
+    private static final long MAX_BEFORE_MULTIPLY = Long.MAX_VALUE / BASE;
 
 
     static {
         for (int i = 0; i < FAST_SIZE; i++) {
             digitsIndex[i] = -1;
+            sortableDigitsIndex[i] = -1;
         }
         for (int i = 0; i < BASE; i++) {
             digitsIndex[digitsChar[i]] = i;
+            sortableDigitsIndex[sortableDigitsChar[i]] = i;
+        }
+        POWERS[0] = 1;
+        for (int i = 1; i < MAX_LENGTH; i++) {
+            POWERS[i] = POWERS[i - 1] * BASE;
         }
     }
 
     public static long decode(String s) {
+        return decode(s, 0, s.length());
+    }
+
+    public static String encode(long number) {
+        char[] buf = new char[MAX_LENGTH];
+        int length = encode(number, buf, 0);
+        return new String(buf, 0, length);
+    }
+
+    /**
+     * @return the sortable code for number, left padded with '0' to exactly width characters
+     */
+    public static String encodeFixed(long number, int width) {
+        char[] buf = new char[width];
+        encodeFixed(number, width, buf, 0);
+        return new String(buf);
+    }
+
+    /**
+     * @return the number of characters needed to encode number
+     */
+    public static int encodedLength(long number) {
+        checkPositive(number);
+        int length = 1;
+        while (length < MAX_LENGTH && number >= POWERS[length]) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the code for number into dst starting at offset.
+     * @return the number of characters written, at most {@link #MAX_LENGTH}
+     */
+    public static int encode(long number, char[] dst, int offset) {
+        int length = encodedLength(number);
+        for (int pos = offset + length - 1; pos >= offset; pos--) {
+            dst[pos] = digitsChar[(int) (number % BASE)];
+            number /= BASE;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the code for number as ASCII bytes into dst starting at offset.
+     * @return the number of bytes written, at most {@link #MAX_LENGTH}
+     */
+    public static int encode(long number, byte[] dst, int offset) {
+        int length = encodedLength(number);
+        for (int pos = offset + length - 1; pos >= offset; pos--) {
+            dst[pos] = (byte) digitsChar[(int) (number % BASE)];
+            number /= BASE;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the code for number as ASCII bytes at the buffer's position, advancing it.
+     * @return the number of bytes written, at most {@link #MAX_LENGTH}
+     */
+    public static int encode(long number, ByteBuffer dst) {
+        int length = encodedLength(number);
+        int start = dst.position();
+        for (int pos = start + length - 1; pos >= start; pos--) {
+            dst.put(pos, (byte) digitsChar[(int) (number % BASE)]);
+            number /= BASE;
+        }
+        dst.position(start + length);
+        return length;
+    }
+
+    /**
+     * Writes the sortable code for number into dst starting at offset, left padded with '0' to exactly width
+     * characters.
+     */
+    public static void encodeFixed(long number, int width, char[] dst, int offset) {
+        int length = encodedLength(number);
+        if (length > width) {
+            throw new IllegalArgumentException("Number(Base62) " + number + " doesn't fit in " + width + " characters");
+        }
+        for (int pos = offset + width - 1; pos >= offset; pos--) {
+            dst[pos] = sortableDigitsChar[(int) (number % BASE)];
+            number /= BASE;
+        }
+    }
+
+    /**
+     * Decodes a code written by {@link #encodeFixed}.
+     */
+    public static long decodeFixed(CharSequence s) {
+        checkLength(0, s.length(), s);
         long result = 0L;
-        long multiplier = 1;
-        for (int pos = s.length() - 1; pos >= 0; pos--) {
-            int index = getIndex(s, pos);
-            result += index * multiplier;
-            multiplier *= BASE;
+        for (int pos = 0; pos < s.length(); pos++) {
+            result = accumulate(result, getIndex(s.charAt(pos), s, sortableDigitsIndex), s);
         }
         return result;
     }
 
-    public static String encode(long number) {
-        if (number < 0) throw new IllegalArgumentException("Number(Base62) must be positive: " + number);
-        if (number == 0) return "0";
-        StringBuilder buf = new StringBuilder();
-        while (number != 0) {
-            buf.append(digitsChar[(int) (number % BASE)]);
-            number /= BASE;
+    /**
+     * Decodes the characters [start, end) of s.
+     */
+    public static long decode(CharSequence s, int start, int end) {
+        checkLength(start, end, s);
+        long result = 0L;
+        for (int pos = start; pos < end; pos++) {
+            result = accumulate(result, getIndex(s.charAt(pos), s, digitsIndex), s);
+        }
+        return result;
+    }
+
+    /**
+     * Decodes length ASCII bytes of src starting at offset.
+     */
+    public static long decode(byte[] src, int offset, int length) {
+        checkLength(offset, offset + length, null);
+        long result = 0L;
+        for (int pos = offset; pos < offset + length; pos++) {
+            result = accumulate(result, getIndex((char) (src[pos] & 0xff), null, digitsIndex), null);
+        }
+        return result;
+    }
+
+    /**
+     * Decodes the ASCII bytes between the buffer's position and limit, without moving the position.
+     */
+    public static long decode(ByteBuffer src) {
+        int start = src.position();
+        int end = src.limit();
+        checkLength(start, end, null);
+        long result = 0L;
+        for (int pos = start; pos < end; pos++) {
+            result = accumulate(result, getIndex((char) (src.get(pos) & 0xff), null, digitsIndex), null);
+        }
+        return result;
+    }
+
+    /**
+     * Decodes s without throwing, for hot paths fed with untrusted input.
+     * @return the decoded number, or -1 if s is empty, too long or not valid base 62
+     */
+    public static long tryDecode(CharSequence s) {
+        int length = s.length();
+        if (length == 0 || length > MAX_LENGTH) {
+            return -1;
+        }
+        long result = 0L;
+        for (int pos = 0; pos < length; pos++) {
+            char c = s.charAt(pos);
+            int index = c > FAST_SIZE ? -1 : digitsIndex[c];
+            if (index == -1 || result > MAX_BEFORE_MULTIPLY) {
+                return -1;
+            }
+            result = result * BASE;
+            if (result > Long.MAX_VALUE - index) {
+                return -1;
+            }
+            result += index;
         }
-        return buf.reverse().toString();
+        return result;
+    }
+
+    /**
+     * Like {@link #tryDecode(CharSequence)} but also rejects codes with leading zeros, so that every number has
+     * exactly one code: "0abc" isn't another spelling of "abc". Short urls arriving on a request go through here.
+     * @return the decoded number, or -1 if s isn't a code {@link #encode(long)} could have produced
+     */
+    public static long tryDecodeCanonical(CharSequence s) {
+        if (s.length() > 1 && s.charAt(0) == digitsChar[0]) {
+            return -1;
+        }
+        return tryDecode(s);
+    }
+
+    private static long accumulate(long result, int index, CharSequence s) {
+        if (result > MAX_BEFORE_MULTIPLY) {
+            throw overflow(s);
+        }
+        result = result * BASE;
+        if (result > Long.MAX_VALUE - index) {
+            throw overflow(s);
+        }
+        return result + index;
+    }
+
+    private static void checkLength(int start, int end, CharSequence s) {
+        if (end <= start) {
+            throw new IllegalArgumentException("Empty string for Base62");
+        }
+        if (end - start > MAX_LENGTH) {
+            throw overflow(s);
+        }
+    }
+
+    private static void checkPositive(long number) {
+        if (number < 0) throw new IllegalArgumentException("Number(Base62) must be positive: " + number);
+    }
+
+    private static IllegalArgumentException overflow(CharSequence s) {
+        return new IllegalArgumentException("Base62 value overflows a long" + (s == null ? "" : ": " + s));
     }
 
-    private static int getIndex(String s, int pos) {
-        char c = s.charAt(pos);
+    private static int getIndex(char c, CharSequence s, int[] digitsIndex) {
         if (c > FAST_SIZE) {
-            throw new IllegalArgumentException("Unknow character for Base62: " + s);
+            throw new IllegalArgumentException("Unknow character for Base62: " + (s == null ? c : s));
         }
         int index = digitsIndex[c];
         if (index == -1) {
-            throw new IllegalArgumentException("Unknow character for Base62: " + s);
+            throw new IllegalArgumentException("Unknow character for Base62: " + (s == null ? c : s));
         }
         return index;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,90 @@
+package net.orfdev;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over long keys: {@link #mightContain} never answers false for a key that was put, and answers
+ * true for a key that wasn't with about the false positive rate it was sized for, as long as no more than
+ * {@link #capacity()} keys are put.
+ *
+ * The bits live in an AtomicLongArray and are only ever set, so puts and lookups from any number of threads need
+ * no lock. The k bit positions come from two mixes of the key (double hashing).
+ */
+public final class BloomFilter {
+
+	private final AtomicLongArray words;
+	private final long bits;
+	private final int hashes;
+	private final long capacity;
+
+	private BloomFilter(long bits, int hashes, long capacity) {
+		long wordCount = (bits + 63) >>> 6;
+		if (wordCount > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Bloom filter of " + bits + " bits is too large");
+		}
+		this.words = new AtomicLongArray((int) wordCount);
+		this.bits = wordCount << 6;
+		this.hashes = hashes;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Sizes the filter for the number of keys and false positive rate: m = -n ln p / (ln 2)^2 bits and
+	 * k = m / n ln 2 hashes.
+	 */
+	public static BloomFilter create(long expectedKeys, double falsePositiveRate) {
+		if (expectedKeys <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("Bad bloom filter sizing: " + expectedKeys + " keys at " + falsePositiveRate);
+		}
+		long bits = Math.max(64, (long) Math.ceil(-expectedKeys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2))));
+		int hashes = Math.max(1, (int) Math.round((double) bits / expectedKeys * Math.log(2)));
+		return new BloomFilter(bits, hashes, expectedKeys);
+	}
+
+	public void put(long key) {
+		long h1 = mix(key);
+		long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+		for (int i = 0; i < hashes; i++) {
+			long bit = Math.floorMod(h1 + i * h2, bits);
+			int word = (int) (bit >>> 6);
+			long mask = 1L << bit;
+			long current = words.get(word);
+			while ((current & mask) == 0 && !words.compareAndSet(word, current, current | mask)) {
+				current = words.get(word);
+			}
+		}
+	}
+
+	public boolean mightContain(long key) {
+		long h1 = mix(key);
+		long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+		for (int i = 0; i < hashes; i++) {
+			long bit = Math.floorMod(h1 + i * h2, bits);
+			if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of keys the filter was sized for
+	 */
+	public long capacity() {
+		return capacity;
+	}
+
+	public long sizeInBytes() {
+		return bits >>> 3;
+	}
+
+	// murmur3 finaliser
+	private static long mix(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+}
@@ -0,0 +1,188 @@
+package net.orfdev;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * Fills the {@link ShortUrlCache} before the instance reports ready, so a fresh deploy doesn't send every
+ * redirect of its first minutes to the database.
+ *
+ * Runs as an ApplicationRunner: Spring Boot only moves the readiness state (/actuator/health/readiness) to
+ * ACCEPTING_TRAFFIC once the runners are done. The cache is filled either from the snapshot file written by the
+ * previous instance on shutdown, when {@code snapshot-file} is set and the file is there, or else with the
+ * {@code size} most clicked mappings from the database, fetched in batches.
+ *
+ * The snapshot is a flat file: a magic number and entry count, then per entry the id, the url length and the url
+ * in UTF-8. It is memory-mapped to be read. Mappings never change once created, so a snapshot from an older
+ * instance only risks holding mappings that are no longer hot.
+ */
+@Component
+public class CacheWarmer implements ApplicationRunner {
+
+	private static final Logger log = LogManager.getLogger();
+
+	private static final int SNAPSHOT_MAGIC = 0x55534331; // "USC1"
+	private static final int BATCH_SIZE = 1000;
+
+	@Autowired
+	private UrlShortDatabase shortUrlDb;
+
+	@Autowired
+	private ShortUrlCache cache;
+
+	@Autowired
+	private ClickCounter clickCounter;
+
+	@Value("${urlshort.warmup.enabled:true}")
+	private boolean enabled;
+
+	@Value("${urlshort.warmup.size:10000}")
+	private int size;
+
+	@Value("${urlshort.warmup.snapshot-file:}")
+	private String snapshotFile;
+
+
+	@Override
+	public void run(ApplicationArguments args) {
+		if (!enabled) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		Path snapshot = snapshotPath();
+		int loaded = snapshot != null && Files.isRegularFile(snapshot) ? loadSnapshot(snapshot) : -1;
+		String source = "snapshot " + snapshot;
+		if (loaded < 0) {
+			loaded = loadMostClicked();
+			source = "most clicked urls";
+		}
+		log.info("Warmed the cache with {} mappings from the {} in {} ms", loaded, source, System.currentTimeMillis() - start);
+	}
+
+	private int loadMostClicked() {
+		List<Long> ids;
+		try {
+			ids = clickCounter.getMostClicked(size);
+		} catch (DataAccessException ex) {
+			// a cold cache is slower, not broken
+			log.warn("Could not find the most clicked urls, starting with a cold cache", ex);
+			return 0;
+		}
+		int loaded = 0;
+		for (int from = 0; from < ids.size(); from += BATCH_SIZE) {
+			loaded += shortUrlDb.warm(ids.subList(from, Math.min(ids.size(), from + BATCH_SIZE)));
+		}
+		return loaded;
+	}
+
+	/**
+	 * @return the number of mappings loaded, or -1 if the snapshot can't be used
+	 */
+	private int loadSnapshot(Path snapshot) {
+		try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.remaining() < 8 || buffer.getInt() != SNAPSHOT_MAGIC) {
+				log.warn("Ignoring cache snapshot {}, it isn't one", snapshot);
+				return -1;
+			}
+			int count = buffer.getInt();
+			for (int i = 0; i < count; i++) {
+				long id = buffer.getLong();
+				int length = buffer.getInt();
+				if (length < 0 || length > buffer.remaining()) {
+					throw new BufferUnderflowException();
+				}
+				byte[] url = new byte[length];
+				buffer.get(url);
+				cache.put(id, new String(url, StandardCharsets.UTF_8));
+			}
+			return count;
+		} catch (IOException | BufferUnderflowException ex) {
+			// whatever was read before the damage is still valid
+			log.warn("Cache snapshot {} is unreadable or truncated", snapshot, ex);
+			return -1;
+		}
+	}
+
+	/**
+	 * Writes what the cache holds to the snapshot file for the next instance. Written to a temporary file and moved
+	 * into place, so a crash half way leaves the previous snapshot.
+	 */
+	@PreDestroy
+	public void writeSnapshot() {
+		final Path snapshot = snapshotPath();
+		if (!enabled || snapshot == null) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+		try {
+			if (snapshot.getParent() != null) {
+				Files.createDirectories(snapshot.getParent());
+			}
+			final int[] count = new int[1];
+			try (OutputStream file = Files.newOutputStream(tmp);
+					final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+				out.writeInt(SNAPSHOT_MAGIC);
+				out.writeInt(0); // count, patched below
+				cache.forEach((id, longUrl) -> {
+					try {
+						byte[] url = longUrl.getBytes(StandardCharsets.UTF_8);
+						out.writeLong(id);
+						out.writeInt(url.length);
+						out.write(url);
+						count[0]++;
+					} catch (IOException ex) {
+						throw new SnapshotWriteException(ex);
+					}
+				});
+			}
+			try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+				channel.write(ByteBuffer.allocate(4).putInt(0, count[0]), 4);
+				channel.force(true);
+			}
+			Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			log.info("Wrote {} cached mappings to {} in {} ms", count[0], snapshot, System.currentTimeMillis() - start);
+		} catch (IOException | SnapshotWriteException ex) {
+			log.warn("Could not write the cache snapshot {}", snapshot, ex);
+		}
+	}
+
+	private Path snapshotPath() {
+		return StringUtils.hasText(snapshotFile) ? Paths.get(snapshotFile) : null;
+	}
+
+
+	private static final class SnapshotWriteException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		SnapshotWriteException(IOException cause) {
+			super(cause);
+		}
+	}
+}
@@ -0,0 +1,261 @@
+package net.orfdev;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Per short url click counts.
+ *
+ * Redirect threads only bump a striped {@link LongAdder} per code, with no lock and no DB access. A scheduled
+ * flush takes the deltas accumulated since the last run and adds them to the url_clicks table with one JDBC
+ * batch of UPDATEs, followed by INSERTs for codes clicked for the first time, all in one transaction so a failed flush
+ * can keep its deltas for the next one without counting any of them twice. Totals for the codes recently asked about
+ * are kept in memory and moved forward by each flush, so reporting a total doesn't need a query per request.
+ */
+@Component
+public class ClickCounter {
+
+	private static final Logger log = LogManager.getLogger();
+
+	private static final int MIGRATION_BATCH_SIZE = 1000;
+
+	@Autowired
+	private JdbcTemplate jdbctemplate;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${urlshort.clicks.totals-cache-size:10000}")
+	private int totalsCacheSize;
+
+	private final ConcurrentHashMap<Long, LongAdder> pending = new ConcurrentHashMap<>();
+
+	// persisted totals of recently reported codes, guarded by itself
+	private Map<Long, Long> persistedTotals;
+
+	// held for writing by a flush from taking the deltas until the totals have moved, so a total read meanwhile
+	// can't miss the deltas in flight or be cached from before the flush
+	private final ReadWriteLock flushLock = new ReentrantReadWriteLock();
+
+	private TransactionTemplate transactionTemplate;
+	// a savepoint, so a duplicate key on an INSERT doesn't abort the whole flush on PostgreSQL
+	private TransactionTemplate savepointTemplate;
+
+	private Counter flushedClicks;
+	private Timer flushTimer;
+
+
+	@PostConstruct
+	public void init() {
+		SchemaSupport.resumeSwap(jdbctemplate, "url_clicks", "url_clicks_migrating");
+		if (SchemaSupport.columnExists(jdbctemplate, "url_clicks", "short_url")) {
+			migrateToNumericKeys();
+		}
+		jdbctemplate.execute("CREATE TABLE If Not Exists url_clicks (id BIGINT Primary Key, clicks BIGINT NOT NULL)");
+		DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(jdbctemplate.getDataSource());
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		savepointTemplate = new TransactionTemplate(transactionManager);
+		savepointTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+		final int capacity = totalsCacheSize;
+		persistedTotals = new LinkedHashMap<Long, Long>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+				return size() > capacity;
+			}
+		};
+		flushedClicks = Counter.builder("urlshort.clicks.flushed")
+				.description("Clicks written to the url_clicks table").register(meterRegistry);
+		flushTimer = Timer.builder("urlshort.clicks.flush")
+				.description("Time taken to write one round of click deltas").register(meterRegistry);
+	}
+
+
+	public void record(long id) {
+		Long key = id;
+		LongAdder adder = pending.get(key);
+		if (adder == null) {
+			adder = pending.computeIfAbsent(key, k -> new LongAdder());
+		}
+		adder.increment();
+	}
+
+	/**
+	 * @return all clicks on the short url, including the ones not flushed to the DB yet
+	 */
+	public long getClicks(long id) {
+		Long key = id;
+		flushLock.readLock().lock();
+		try {
+			Long persisted;
+			synchronized (persistedTotals) {
+				persisted = persistedTotals.get(key);
+			}
+			if (persisted == null) {
+				persisted = jdbctemplate.query("SELECT clicks FROM url_clicks WHERE id = ?",
+						rs -> rs.next() ? rs.getLong(1) : 0L, id);
+				synchronized (persistedTotals) {
+					// another reader may have got there first, with the same figure
+					persistedTotals.putIfAbsent(key, persisted);
+				}
+			}
+			LongAdder adder = pending.get(key);
+			return persisted + (adder == null ? 0 : adder.sum());
+		} finally {
+			flushLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the ids of the most clicked short urls, most clicked first; flushed clicks only
+	 */
+	public List<Long> getMostClicked(int limit) {
+		// no index on clicks: a single scan with a top-N sort, only meant to run at startup
+		return jdbctemplate.queryForList("SELECT id FROM url_clicks ORDER BY clicks DESC LIMIT ?", Long.class, limit);
+	}
+
+	/**
+	 * Copies a url_clicks table from before numeric keys into a new one, the same way {@link JdbcUrlStore} migrates
+	 * the urls table, then swaps it in.
+	 */
+	private void migrateToNumericKeys() {
+		SchemaSupport.dropTable(jdbctemplate, "url_clicks_migrating");
+		jdbctemplate.execute("CREATE TABLE url_clicks_migrating (id BIGINT Primary Key, clicks BIGINT NOT NULL)");
+		String last = "";
+		List<Object[]> rows;
+		do {
+			rows = jdbctemplate.query("SELECT short_url, clicks FROM url_clicks WHERE short_url > ? ORDER BY short_url LIMIT " + MIGRATION_BATCH_SIZE,
+					(rs, rowNum) -> new Object[] {rs.getString(1), rs.getLong(2)}, last);
+			List<Object[]> batch = new ArrayList<>(rows.size());
+			for (Object[] row : rows) {
+				long id = Base62.tryDecodeCanonical((String) row[0]);
+				if (id >= 0) {
+					batch.add(new Object[] {id, row[1]});
+				}
+			}
+			if (!batch.isEmpty()) {
+				jdbctemplate.batchUpdate("INSERT INTO url_clicks_migrating (id, clicks) Values (?,?)", batch);
+			}
+			if (!rows.isEmpty()) {
+				last = (String) rows.get(rows.size() - 1)[0];
+			}
+		} while (rows.size() == MIGRATION_BATCH_SIZE);
+		SchemaSupport.swapTable(jdbctemplate, "url_clicks", "url_clicks_migrating");
+		log.info("Migrated url_clicks to numeric short url keys");
+	}
+
+	@Scheduled(fixedDelayString = "${urlshort.clicks.flush-interval-millis:5000}")
+	@PreDestroy
+	public void flush() {
+		flushLock.writeLock().lock();
+		try {
+			flushDeltas();
+		} finally {
+			flushLock.writeLock().unlock();
+		}
+	}
+
+	private void flushDeltas() {
+		final List<Map.Entry<Long, Long>> deltas = new ArrayList<>();
+		for (Map.Entry<Long, LongAdder> entry : pending.entrySet()) {
+			long delta = entry.getValue().sumThenReset();
+			if (delta > 0) {
+				deltas.add(new SimpleImmutableEntry<>(entry.getKey(), delta));
+			} else {
+				// idle since the last flush; a click racing this removal can be lost, which is fine for analytics
+				pending.remove(entry.getKey(), entry.getValue());
+			}
+		}
+		if (deltas.isEmpty()) {
+			return;
+		}
+
+		long start = System.nanoTime();
+		try {
+			// all or nothing: what a failed flush puts back must not have been written in part
+			transactionTemplate.executeWithoutResult(status -> write(deltas));
+		} catch (DataAccessException ex) {
+			log.warn("Could not flush {} click counts, keeping them for the next attempt", deltas.size(), ex);
+			for (Map.Entry<Long, Long> delta : deltas) {
+				pending.computeIfAbsent(delta.getKey(), k -> new LongAdder()).add(delta.getValue());
+			}
+			return;
+		}
+		flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+		long total = 0;
+		synchronized (persistedTotals) {
+			for (Map.Entry<Long, Long> delta : deltas) {
+				persistedTotals.computeIfPresent(delta.getKey(), (k, persisted) -> persisted + delta.getValue());
+				total += delta.getValue();
+			}
+		}
+		flushedClicks.increment(total);
+	}
+
+	private void write(List<Map.Entry<Long, Long>> deltas) {
+		int[] updated = jdbctemplate.batchUpdate("UPDATE url_clicks SET clicks = clicks + ? WHERE id = ?", setter(deltas));
+		List<Map.Entry<Long, Long>> missing = new ArrayList<>();
+		for (int i = 0; i < updated.length; i++) {
+			if (updated[i] == 0) {
+				missing.add(deltas.get(i));
+			}
+		}
+		// codes clicked for the first time; another node may count the same new code concurrently
+		for (Map.Entry<Long, Long> delta : missing) {
+			try {
+				savepointTemplate.executeWithoutResult(status ->
+						jdbctemplate.update("INSERT INTO url_clicks (clicks, id) Values (?,?)", delta.getValue(), delta.getKey()));
+			} catch (DuplicateKeyException ex) {
+				jdbctemplate.update("UPDATE url_clicks SET clicks = clicks + ? WHERE id = ?", delta.getValue(), delta.getKey());
+			}
+		}
+	}
+
+	private static BatchPreparedStatementSetter setter(final List<Map.Entry<Long, Long>> deltas) {
+		return new BatchPreparedStatementSetter() {
+			@Override
+			public void setValues(PreparedStatement ps, int i) throws SQLException {
+				ps.setLong(1, deltas.get(i).getValue());
+				ps.setLong(2, deltas.get(i).getKey());
+			}
+
+			@Override
+			public int getBatchSize() {
+				return deltas.size();
+			}
+		};
+	}
+}
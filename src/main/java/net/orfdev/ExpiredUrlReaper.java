@@ -0,0 +1,105 @@
+package net.orfdev;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Deletes expired short urls in the background, so the urls table and its indexes don't keep dead links forever.
+ *
+ * Each run deletes {@code batch-size} rows at a time (see {@link UrlStore#purgeExpired}), each batch its own short
+ * transaction, sleeping {@code batch-pause-millis} between batches so lookups and inserts get the rows and the
+ * connection back, and stops after {@code max-run-millis} even if there is more to do; the next run carries on.
+ * Expired links already answer 404 before they are deleted, so falling behind only costs space.
+ *
+ * Several nodes may run it at once, the batches just overlap.
+ */
+@Component
+public class ExpiredUrlReaper {
+
+	private static final Logger log = LogManager.getLogger();
+
+	@Autowired
+	private UrlShortDatabase shortUrlDb;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${urlshort.expiry.reaper-enabled:true}")
+	private boolean enabled;
+
+	@Value("${urlshort.expiry.batch-size:500}")
+	private int batchSize;
+
+	@Value("${urlshort.expiry.batch-pause-millis:20}")
+	private long batchPauseMillis;
+
+	@Value("${urlshort.expiry.max-run-millis:1000}")
+	private long maxRunMillis;
+
+	private Counter purged;
+	private Timer pause;
+
+
+	@PostConstruct
+	public void init() {
+		purged = Counter.builder("urlshort.expiry.purged")
+				.description("Expired short urls deleted by the reaper").register(meterRegistry);
+		pause = Timer.builder("urlshort.expiry.pause")
+				.description("Time taken by one reaper batch, during which the rows it deletes are locked").register(meterRegistry);
+	}
+
+
+	@Scheduled(fixedDelayString = "${urlshort.expiry.reap-interval-millis:60000}")
+	public void reap() {
+		if (!enabled) {
+			return;
+		}
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxRunMillis);
+		long total = 0;
+		int deleted;
+		try {
+			do {
+				long batchStart = System.nanoTime();
+				deleted = shortUrlDb.purgeExpired(batchSize);
+				pause.record(System.nanoTime() - batchStart, TimeUnit.NANOSECONDS);
+				purged.increment(deleted);
+				total += deleted;
+			} while (deleted == batchSize && System.nanoTime() - deadline < 0 && pauseBetweenBatches());
+		} catch (DataAccessException ex) {
+			log.warn("Could not purge expired short urls, retrying on the next run", ex);
+		}
+		if (total > 0) {
+			log.info("Purged {} expired short urls in {} ms", total, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		}
+	}
+
+	/**
+	 * @return false if the run should stop
+	 */
+	private boolean pauseBetweenBatches() {
+		if (batchPauseMillis <= 0) {
+			return true;
+		}
+		try {
+			Thread.sleep(batchPauseMillis);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+}
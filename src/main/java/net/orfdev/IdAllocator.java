@@ -0,0 +1,13 @@
+package net.orfdev;
+
+/**
+ * Hands out unique, non-negative numbers to be Base62 encoded into short urls.
+ * 
+ * Implementations must be thread safe and must never return the same value twice (across restarts and
+ * across nodes sharing the same database), so that shortening a url is a single INSERT with no retry.
+ */
+public interface IdAllocator {
+
+	long nextId();
+
+}
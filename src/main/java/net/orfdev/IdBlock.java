@@ -0,0 +1,30 @@
+package net.orfdev;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A block of ids [start, end) leased by an {@link IdAllocator}, handed out to any number of threads with one atomic
+ * increment each. Nothing is kept per thread: with request handlers on virtual threads every request comes on a new
+ * thread, and a per thread range would be thrown away after its first id.
+ */
+final class IdBlock {
+
+	static final IdBlock EMPTY = new IdBlock(0, 0);
+
+	private final AtomicLong next;
+	private final long end;
+
+	IdBlock(long start, long end) {
+		this.next = new AtomicLong(start);
+		this.end = end;
+	}
+
+	/**
+	 * @return the next id of the block, or -1 once it is used up
+	 */
+	long take() {
+		// threads racing past the end leave next beyond it, which is harmless
+		long id = next.getAndIncrement();
+		return id < end ? id : -1;
+	}
+}
@@ -0,0 +1,64 @@
+package net.orfdev;
+
+/**
+ * Reversible permutation of the 62 bit non-negative longs, used so that sequentially allocated ids don't
+ * turn into guessable, sequential short urls.
+ * 
+ * Each step (xor with a key, multiplication by an odd constant, xor-shift) is a bijection modulo 2^62, so
+ * distinct inputs always give distinct outputs and {@link #unscramble(long)} can undo {@link #scramble(long)}.
+ */
+public class IdScrambler {
+
+	public static final int BITS = 62;
+	public static final long MASK = (1L << BITS) - 1;
+
+	private static final long M1 = 0x1f83d9abfb41bd6bL | 1L;
+	private static final long M2 = 0x5be0cd19137e2179L | 1L;
+	private static final int S1 = 31;
+	private static final int S2 = 29;
+
+	private static final long M1_INVERSE = inverse(M1);
+	private static final long M2_INVERSE = inverse(M2);
+
+	private final long key;
+
+	public IdScrambler(long key) {
+		this.key = key & MASK;
+	}
+
+	public long scramble(long id) {
+		if (id < 0 || id > MASK) throw new IllegalArgumentException("Id out of range: " + id);
+		long x = id ^ key;
+		x = (x * M1) & MASK;
+		x ^= x >>> S1;
+		x = (x * M2) & MASK;
+		x ^= x >>> S2;
+		return x;
+	}
+
+	public long unscramble(long value) {
+		if (value < 0 || value > MASK) throw new IllegalArgumentException("Value out of range: " + value);
+		long x = unshift(value, S2);
+		x = (x * M2_INVERSE) & MASK;
+		x = unshift(x, S1);
+		x = (x * M1_INVERSE) & MASK;
+		return x ^ key;
+	}
+
+	private static long unshift(long y, int shift) {
+		long x = y;
+		for (int i = 0; i * shift < BITS; i++) {
+			x = y ^ (x >>> shift);
+		}
+		return x;
+	}
+
+	// multiplicative inverse modulo 2^64 by Newton iteration, each round doubles the number of correct bits
+	private static long inverse(long odd) {
+		long inv = odd;
+		for (int i = 0; i < 5; i++) {
+			inv *= 2 - odd * inv;
+		}
+		return inv;
+	}
+}
@@ -0,0 +1,200 @@
+package net.orfdev;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Write-behind stage for new mappings.
+ *
+ * Request threads queue their row and wait on the returned future; a single writer thread coalesces whatever
+ * is pending into one JDBC batch, flushed once {@code max-batch-size} rows are waiting or the oldest row has
+ * waited {@code max-latency-millis}. Futures only complete once the batch is committed, so callers never
+ * hand out a short url that isn't durable yet.
+ */
+@Component
+public class InsertBatcher {
+
+	private static final Logger log = LogManager.getLogger();
+
+	@Autowired
+	private UrlShortDatabase shortUrlDb;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${urlshort.batch.queue-capacity:10000}")
+	private int queueCapacity;
+
+	@Value("${urlshort.batch.max-batch-size:200}")
+	private int maxBatchSize;
+
+	@Value("${urlshort.batch.max-latency-millis:5}")
+	private long maxLatencyMillis;
+
+	private BlockingQueue<PendingInsert> queue;
+	private Thread writer;
+	private volatile boolean running;
+
+	private DistributionSummary batchSize;
+	private Timer flushLatency;
+
+
+	@PostConstruct
+	public void start() {
+		queue = new ArrayBlockingQueue<>(queueCapacity);
+		Gauge.builder("urlshort.batch.queue.depth", queue, BlockingQueue::size)
+				.description("Inserts waiting to be flushed").register(meterRegistry);
+		batchSize = DistributionSummary.builder("urlshort.batch.size")
+				.description("Rows written per JDBC batch").register(meterRegistry);
+		flushLatency = Timer.builder("urlshort.batch.flush")
+				.description("Time taken to write one JDBC batch").register(meterRegistry);
+
+		running = true;
+		writer = new Thread(this::writeLoop, "insert-batcher");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		running = false;
+		writer.interrupt();
+		writer.join(TimeUnit.SECONDS.toMillis(5));
+		// queued after the writer's last look at the queue, or left behind by a writer that didn't stop in time
+		List<PendingInsert> left = new ArrayList<>();
+		queue.drainTo(left);
+		for (PendingInsert pending : left) {
+			pending.future.completeExceptionally(stopped());
+		}
+	}
+
+	private static IllegalStateException stopped() {
+		return new IllegalStateException("Insert batcher is stopped");
+	}
+
+
+	/**
+	 * Queues a mapping for insertion, blocking while the queue is full. The future completes once the row has
+	 * been committed, or exceptionally if it could not be written.
+	 */
+	public CompletableFuture<Void> submit(long id, String longUrl) {
+		return submit(new UrlMapping(id, longUrl));
+	}
+
+	public CompletableFuture<Void> submit(UrlMapping mapping) {
+		PendingInsert pending = new PendingInsert(mapping);
+		try {
+			// not put(): nothing takes from a full queue once the writer has stopped
+			while (!queue.offer(pending, 100, TimeUnit.MILLISECONDS)) {
+				if (!running) {
+					pending.future.completeExceptionally(stopped());
+					return pending.future;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			pending.future.completeExceptionally(e);
+			return pending.future;
+		}
+		// stop() may have drained the queue for the last time before the row went in; if the row is still there
+		// nothing will write it, otherwise the writer or stop() has it and completes the future
+		if (!running && queue.remove(pending)) {
+			pending.future.completeExceptionally(stopped());
+		}
+		return pending.future;
+	}
+
+	private void writeLoop() {
+		List<PendingInsert> batch = new ArrayList<>(maxBatchSize);
+		while (running || !queue.isEmpty()) {
+			try {
+				PendingInsert first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				long deadline = first.enqueuedAt + TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis);
+				while (batch.size() < maxBatchSize) {
+					PendingInsert next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+			} catch (InterruptedException e) {
+				// stop() was called, drain whatever is left on the next iterations
+				queue.drainTo(batch, maxBatchSize - batch.size());
+			}
+			if (!batch.isEmpty()) {
+				try {
+					flush(batch);
+				} catch (Throwable ex) {
+					// an Error (out of memory, a broken driver) must not kill the only writer: every caller would wait forever
+					log.error("Writing a batch of {} rows failed", batch.size(), ex);
+					for (PendingInsert pending : batch) {
+						pending.future.completeExceptionally(ex);
+					}
+				}
+				batch.clear();
+			}
+		}
+	}
+
+	private void flush(List<PendingInsert> batch) {
+		List<UrlMapping> mappings = new ArrayList<>(batch.size());
+		for (PendingInsert pending : batch) {
+			mappings.add(pending.mapping);
+		}
+		long start = System.nanoTime();
+		try {
+			shortUrlDb.insertBatch(mappings);
+			flushLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			batchSize.record(batch.size());
+			for (PendingInsert pending : batch) {
+				pending.future.complete(null);
+			}
+		} catch (RuntimeException ex) {
+			// one bad row fails the whole batch, so fall back to single inserts to only fail the offending ones
+			log.info("Batch insert of {} rows failed, retrying row by row", batch.size(), ex);
+			for (PendingInsert pending : batch) {
+				try {
+					shortUrlDb.insertBatch(Collections.singletonList(pending.mapping));
+					pending.future.complete(null);
+				} catch (RuntimeException rowEx) {
+					pending.future.completeExceptionally(rowEx);
+				}
+			}
+		}
+	}
+
+
+	private static final class PendingInsert {
+
+		final UrlMapping mapping;
+		final long enqueuedAt = System.nanoTime();
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+
+		PendingInsert(UrlMapping mapping) {
+			this.mapping = mapping;
+		}
+	}
+}
@@ -0,0 +1,412 @@
+package net.orfdev;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * {@link UrlStore} on the urls table of the configured SQL database (HSQL or PostgreSQL).
+ *
+ * Short urls are stored as the BIGINT their Base62 code encodes, so the primary key index holds 8 byte keys
+ * instead of variable length strings.
+ *
+ * Expiring mappings have their expires_at (epoch millis) set, NULL for the others. The column is indexed so
+ * {@link #purgeExpired} finds the expired rows with a range scan, oldest first, and deletes them a small batch
+ * at a time by primary key.
+ *
+ * With urlshort.storage-compact-urls (the default) a new long url is stored as the id of its origin in the
+ * {@link OriginDictionary} (origin_id) and the rest of the url (url_rest), leaving long_url NULL, so the prefixes
+ * shared by most urls are stored once. Rows written in full, before or without it, are read as they are.
+ *
+ * Urls whose stored part is longer than {@link #INLINE_URL_LENGTH} are kept out of the urls table, which stays
+ * narrow and fixed size: long_url, origin_id and url_rest are left NULL and the whole url goes into url_overflow
+ * under the same id (compressed out of line by PostgreSQL's TOAST once it passes a couple of KB). Lookups read
+ * both tables in one query, the overflow side joined on its primary key, and dedupe still goes through the
+ * long_url_hash index, comparing only the urls of the rows with the same hash.
+ */
+@Component
+@ConditionalOnProperty(name = "urlshort.storage", havingValue = "jdbc", matchIfMissing = true)
+public class JdbcUrlStore implements UrlStore {
+
+	private static final Logger log = LogManager.getLogger();
+
+	@Autowired
+	private JdbcTemplate jdbctemplate;
+
+	// lookups, on their own pool and possibly replicas when the read DataSource is enabled (see ReadDataSourceConfig)
+	@Autowired(required = false)
+	@Qualifier("readJdbcTemplate")
+	private JdbcTemplate readJdbctemplate;
+
+	@Value("${urlshort.storage-compact-urls:true}")
+	private boolean compactUrls;
+
+	// only PostgreSQL has row estimates we read, in pg_class
+	private boolean postgres;
+	private OriginDictionary origins;
+	// joins the transaction of the caller when there is one, eg. UrlChangeLog#inTransaction
+	private TransactionTemplate transactionTemplate;
+
+
+	private static final int MIGRATION_BATCH_SIZE = 1000;
+	private static final int SCAN_BATCH_SIZE = 10000;
+	static final int INLINE_URL_LENGTH = 256;
+	// the urls table as u, with its overflow url if it has one
+	private static final String URL_TABLES = "urls u LEFT JOIN url_overflow o ON o.id = u.id";
+	// what readUrl decodes the long url from
+	private static final String URL_COLUMNS = "u.long_url, u.origin_id, u.url_rest, o.url";
+
+
+	@PostConstruct
+	public void constructDB() {
+		if (readJdbctemplate == null) {
+			readJdbctemplate = jdbctemplate;
+		}
+		origins = new OriginDictionary(jdbctemplate);
+		postgres = "PostgreSQL".equals(jdbctemplate.execute((ConnectionCallback<String>) con -> con.getMetaData().getDatabaseProductName()));
+		transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(jdbctemplate.getDataSource()));
+		jdbctemplate.execute("CREATE TABLE If Not Exists url_overflow (id BIGINT Primary Key, url varchar(" + UtilityCheck.LIMIT_URL + ") NOT NULL)");
+		SchemaSupport.resumeSwap(jdbctemplate, "urls", "urls_migrating");
+		if (SchemaSupport.columnExists(jdbctemplate, "urls", "short_url")) {
+			migrateToNumericKeys();
+		}
+		jdbctemplate.execute("CREATE TABLE If Not Exists urls (id BIGINT Primary Key, long_url varchar(256), long_url_hash BIGINT, expires_at BIGINT, "
+				+ "origin_id INT, url_rest varchar(256));");
+		if (!SchemaSupport.columnExists(jdbctemplate, "urls", "expires_at")) {
+			jdbctemplate.execute("ALTER TABLE urls ADD COLUMN expires_at BIGINT");
+		}
+		if (!SchemaSupport.columnExists(jdbctemplate, "urls", "origin_id")) {
+			jdbctemplate.execute("ALTER TABLE urls ADD COLUMN origin_id INT");
+			jdbctemplate.execute("ALTER TABLE urls ADD COLUMN url_rest varchar(256)");
+		}
+		SchemaSupport.createIndex(jdbctemplate, "urls", "urls_long_url_hash_idx", "long_url_hash");
+		SchemaSupport.createIndex(jdbctemplate, "urls", "urls_expires_at_idx", "expires_at");
+	}
+
+	/**
+	 * Tables from before numeric keys (short_url varchar) are copied into a new table in batches, walking the old
+	 * primary key, with every code decoded once, then swapped in for the old one with {@link SchemaSupport#swapTable}.
+	 * The long_url_hash is recomputed on the way, which also covers tables from before that column existed.
+	 * If the copy is interrupted the old table is untouched and the migration starts over on the next startup.
+	 */
+	private void migrateToNumericKeys() {
+		long start = System.currentTimeMillis();
+		SchemaSupport.dropTable(jdbctemplate, "urls_migrating");
+		jdbctemplate.execute("CREATE TABLE urls_migrating (id BIGINT Primary Key, long_url varchar(256), long_url_hash BIGINT, expires_at BIGINT, "
+				+ "origin_id INT, url_rest varchar(256))");
+
+		String last = "";
+		long copied = 0;
+		List<String[]> rows;
+		do {
+			rows = jdbctemplate.query("SELECT short_url, long_url FROM urls WHERE short_url > ? ORDER BY short_url LIMIT " + MIGRATION_BATCH_SIZE,
+					(rs, rowNum) -> new String[] {rs.getString(1), rs.getString(2)}, last);
+			List<UrlMapping> batch = new ArrayList<>(rows.size());
+			for (String[] row : rows) {
+				long id = Base62.tryDecodeCanonical(row[0]);
+				if (id < 0) {
+					// we never generated such codes, nothing can be redirecting to it through the app
+					log.warn("Dropping mapping [{}] -> [{}], the short url isn't a Base62 code", row[0], row[1]);
+				} else {
+					batch.add(new UrlMapping(id, row[1]));
+				}
+			}
+			prepareInsert(batch);
+			insertBatch("urls_migrating", batch);
+			copied += batch.size();
+			if (!rows.isEmpty()) {
+				last = rows.get(rows.size() - 1)[0];
+			}
+		} while (rows.size() == MIGRATION_BATCH_SIZE);
+
+		SchemaSupport.swapTable(jdbctemplate, "urls", "urls_migrating");
+		log.info("Migrated {} url mappings to numeric short url keys in {} ms", copied, System.currentTimeMillis() - start);
+	}
+
+
+	@Override
+	public boolean supportsExpiry() {
+		return true;
+	}
+
+	@Override
+	public void insert(long id, String longUrl) {
+		insertBatch(Collections.singletonList(new UrlMapping(id, longUrl)));
+	}
+
+	// new origins are added on a connection of their own (see OriginDictionary#idFor), so they go in before any
+	// transaction: one holding a pool connection while it waits for a second one could exhaust the pool
+	@Override
+	public void prepareInsert(List<UrlMapping> mappings) {
+		if (!compactUrls) {
+			return;
+		}
+		for (UrlMapping mapping : mappings) {
+			ParsedUrl parsed = mapping.getParsedUrl();
+			if (parsed != null) {
+				origins.idFor(parsed.getOrigin());
+			}
+		}
+	}
+
+	// a single JDBC batch, two with overflowing urls, in one transaction so a failure leaves none of the rows behind
+	// and the mappings can be retried
+	@Override
+	public void insertBatch(final List<UrlMapping> mappings) {
+		prepareInsert(mappings);
+		transactionTemplate.executeWithoutResult(status -> insertBatch("urls", mappings));
+	}
+
+	private void insertBatch(String table, final List<UrlMapping> mappings) {
+		if (mappings.isEmpty()) {
+			return;
+		}
+		// origins were added by prepareInsert, only the ones already known are used here; a url that doesn't parse
+		// (stored before the validator's rules) or whose origin isn't known is written whole
+		final int[] originIds = new int[mappings.size()];
+		final String[] rests = new String[mappings.size()];
+		final boolean[] overflow = new boolean[mappings.size()];
+		final List<UrlMapping> overflowing = new ArrayList<>();
+		for (int i = 0; i < originIds.length; i++) {
+			String longUrl = mappings.get(i).getLongUrl();
+			ParsedUrl parsed = compactUrls ? mappings.get(i).getParsedUrl() : null;
+			originIds[i] = parsed == null ? -1 : origins.knownId(parsed.getOrigin());
+			rests[i] = originIds[i] < 0 ? longUrl : parsed.getPathAndQuery();
+			overflow[i] = rests[i] != null && rests[i].length() > INLINE_URL_LENGTH;
+			if (overflow[i]) {
+				overflowing.add(mappings.get(i));
+			}
+		}
+		// before the rows pointing at them, so a reader never finds a row without its url
+		if (!overflowing.isEmpty()) {
+			jdbctemplate.batchUpdate("INSERT INTO url_overflow (id, url) Values (?,?)", new BatchPreparedStatementSetter() {
+				@Override
+				public void setValues(PreparedStatement ps, int i) throws SQLException {
+					ps.setLong(1, overflowing.get(i).getId());
+					ps.setString(2, overflowing.get(i).getLongUrl());
+				}
+
+				@Override
+				public int getBatchSize() {
+					return overflowing.size();
+				}
+			});
+		}
+		jdbctemplate.batchUpdate("INSERT INTO " + table + " (id, long_url, long_url_hash, expires_at, origin_id, url_rest) Values (?,?,?,?,?,?)",
+				new BatchPreparedStatementSetter() {
+			@Override
+			public void setValues(PreparedStatement ps, int i) throws SQLException {
+				UrlMapping mapping = mappings.get(i);
+				String longUrl = mapping.getLongUrl();
+				ps.setLong(1, mapping.getId());
+				if (longUrl == null) {
+					ps.setNull(3, Types.BIGINT);
+				} else {
+					ps.setLong(3, UrlHash.hash64(longUrl));
+				}
+				if (mapping.getExpiresAt() == UrlMapping.NEVER) {
+					ps.setNull(4, Types.BIGINT);
+				} else {
+					ps.setLong(4, mapping.getExpiresAt());
+				}
+				if (overflow[i]) {
+					ps.setNull(2, Types.VARCHAR);
+					ps.setNull(5, Types.INTEGER);
+					ps.setNull(6, Types.VARCHAR);
+				} else if (originIds[i] < 0) {
+					ps.setString(2, longUrl);
+					ps.setNull(5, Types.INTEGER);
+					ps.setNull(6, Types.VARCHAR);
+				} else {
+					ps.setNull(2, Types.VARCHAR);
+					ps.setInt(5, originIds[i]);
+					ps.setString(6, rests[i]);
+				}
+			}
+
+			@Override
+			public int getBatchSize() {
+				return mappings.size();
+			}
+		});
+	}
+
+
+	@Override
+	public String findLongUrl(long id) {
+		UrlMapping mapping = findMapping(id);
+		return mapping == null || mapping.isExpired(System.currentTimeMillis()) ? null : mapping.getLongUrl();
+	}
+
+	// a replica may not have caught up with a url shortened a moment ago, so misses are checked against the primary
+	@Override
+	public UrlMapping findMapping(long id) {
+		UrlMapping mapping = findMapping(readJdbctemplate, id);
+		if (mapping == null && readJdbctemplate != jdbctemplate) {
+			mapping = findMapping(jdbctemplate, id);
+		}
+		return mapping;
+	}
+
+	// the expiry comes with the url in the same primary key lookup
+	private UrlMapping findMapping(JdbcTemplate template, long id) {
+		return template.query("SELECT " + URL_COLUMNS + ", u.expires_at FROM " + URL_TABLES + " WHERE u.id = ?",
+				rs -> rs.next() ? new UrlMapping(id, readUrl(rs, 1), rs.getLong(5)) : null, id);
+	}
+
+	/**
+	 * Reads the long url from the {@link #URL_COLUMNS}, starting at the column index.
+	 */
+	private String readUrl(ResultSet rs, int column) throws SQLException {
+		String longUrl = rs.getString(column);
+		if (longUrl != null) {
+			return longUrl;
+		}
+		int originId = rs.getInt(column + 1);
+		if (rs.wasNull()) {
+			return rs.getString(column + 3);
+		}
+		String origin = origins.origin(originId);
+		if (origin == null) {
+			throw new IllegalStateException("No url origin " + originId + " for a stored url");
+		}
+		return origin.concat(rs.getString(column + 2));
+	}
+
+	// a single IN query on the primary key
+	@Override
+	public Map<Long, String> findLongUrls(Collection<Long> ids) {
+		final Map<Long, String> found = new HashMap<>();
+		if (ids.isEmpty()) {
+			return found;
+		}
+		StringBuilder sql = new StringBuilder("SELECT u.id, " + URL_COLUMNS + " FROM " + URL_TABLES + " WHERE u.expires_at IS NULL AND u.id IN (");
+		for (int i = 0; i < ids.size(); i++) {
+			sql.append(i == 0 ? "?" : ",?");
+		}
+		sql.append(')');
+		readJdbctemplate.query(sql.toString(), rs -> {
+			found.put(rs.getLong(1), readUrl(rs, 2));
+		}, ids.toArray());
+		return found;
+	}
+
+	// the hash narrows the lookup down to (almost always) one row through the index, the url compare rules out collisions
+	@Override
+	public long findId(final String longUrl) {
+		return readJdbctemplate.query("SELECT u.id, " + URL_COLUMNS + " FROM " + URL_TABLES + " WHERE u.long_url_hash = ? AND u.expires_at IS NULL",
+				rs -> {
+					while (rs.next()) {
+						if (longUrl.equals(readUrl(rs, 2))) {
+							return rs.getLong(1);
+						}
+					}
+					return -1L;
+				}, UrlHash.hash64(longUrl));
+	}
+
+	// a single IN query on the indexed hash column
+	@Override
+	public Map<String, Long> findIds(final Collection<String> longUrls) {
+		final Map<String, Long> found = new HashMap<>();
+		if (longUrls.isEmpty()) {
+			return found;
+		}
+		Object[] hashes = new Object[longUrls.size()];
+		StringBuilder sql = new StringBuilder("SELECT u.id, " + URL_COLUMNS + " FROM " + URL_TABLES + " WHERE u.expires_at IS NULL AND u.long_url_hash IN (");
+		int i = 0;
+		for (String longUrl : longUrls) {
+			sql.append(i == 0 ? "?" : ",?");
+			hashes[i++] = UrlHash.hash64(longUrl);
+		}
+		sql.append(')');
+		readJdbctemplate.query(sql.toString(), rs -> {
+			// hash collisions can bring back rows for urls we didn't ask for
+			String longUrl = readUrl(rs, 2);
+			if (longUrls.contains(longUrl)) {
+				found.putIfAbsent(longUrl, rs.getLong(1));
+			}
+		}, hashes);
+		return found;
+	}
+
+	@Override
+	public long countAll() {
+		return readJdbctemplate.queryForObject("SELECT COUNT(*) FROM urls", Long.class);
+	}
+
+	// the planner's estimate, kept up to date by autovacuum/ANALYZE; -1 there too until the table was first analyzed
+	@Override
+	public long estimateCount() {
+		if (!postgres) {
+			return -1;
+		}
+		Long estimate = readJdbctemplate.queryForObject("SELECT reltuples::bigint FROM pg_class WHERE oid = 'urls'::regclass", Long.class);
+		return estimate != null && estimate >= 0 ? estimate : -1;
+	}
+
+	// pages through the primary key, so no single query holds a cursor over the whole table
+	@Override
+	public void forEachId(LongConsumer consumer) {
+		long last = -1;
+		List<Long> ids;
+		do {
+			ids = jdbctemplate.queryForList("SELECT id FROM urls WHERE id > ? ORDER BY id LIMIT " + SCAN_BATCH_SIZE, Long.class, last);
+			for (Long id : ids) {
+				consumer.accept(id);
+			}
+			if (!ids.isEmpty()) {
+				last = ids.get(ids.size() - 1);
+			}
+		} while (ids.size() == SCAN_BATCH_SIZE);
+	}
+
+	// the ids come from a range scan of the expiry index and are deleted by primary key, so each statement only
+	// touches (and locks) the rows it removes. Another node purging at the same time may have deleted some of them
+	// first, they are returned all the same.
+	@Override
+	public List<Long> purgeExpired(long nowMillis, int limit) {
+		List<Long> ids = jdbctemplate.queryForList("SELECT id FROM urls WHERE expires_at <= ? ORDER BY expires_at LIMIT " + limit,
+				Long.class, nowMillis);
+		if (ids.isEmpty()) {
+			return ids;
+		}
+		Object[] args = new Object[ids.size() + 1];
+		StringBuilder in = new StringBuilder("id IN (");
+		args[0] = nowMillis;
+		for (int i = 0; i < ids.size(); i++) {
+			in.append(i == 0 ? "?" : ",?");
+			args[i + 1] = ids.get(i);
+		}
+		in.append(')');
+		jdbctemplate.update("DELETE FROM urls WHERE expires_at <= ? AND " + in, args);
+		// the overflow urls of the rows just deleted; if this fails they are left behind, but never read
+		jdbctemplate.update("DELETE FROM url_overflow WHERE " + in, ids.toArray());
+		return ids;
+	}
+
+
+}
@@ -0,0 +1,245 @@
+package net.orfdev;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.function.LongPredicate;
+
+import sun.misc.Unsafe;
+
+/**
+ * Open addressing (linear probing) hash table of long keys to long values, held in a memory-mapped file so that
+ * tens of millions of entries cost no Java heap.
+ *
+ * The same key may be stored more than once with different values (eg. several urls sharing a 64 bit hash);
+ * {@link #find(long, LongPredicate)} lets the caller pick the right one. Values must be non-negative, slots store
+ * value + 1 so that an all-zero slot means empty. There is no delete. Writes must be done by a single thread at a
+ * time; reads may run concurrently with them. The value is what makes a slot taken, so it is published last: the
+ * key is stored, then the value after a release fence, and readers load the value, then the key after an acquire
+ * fence, so a reader that sees the value also sees its key. (Java 8 has no VarHandles on buffers, hence the fences of
+ * {@link Unsafe}; the file stays in the buffers' byte order.)
+ *
+ * File layout: a 4 KB header (magic, capacity, size, watermark) followed by capacity slots of 16 bytes (key, value + 1).
+ */
+class MappedLongHashTable implements Closeable {
+
+	private static final long MAGIC = 0x75726c7368696478L; // "urlshidx"
+	private static final int HEADER_SIZE = 4096;
+	private static final int SLOT_SIZE = 16;
+	private static final int CHUNK_SHIFT = 30; // a mapping can't exceed 2GB, so map the file 1GB at a time
+	private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+	private static final double MAX_LOAD = 0.7;
+
+	private static final int CAPACITY_OFFSET = 8;
+	private static final int SIZE_OFFSET = 16;
+	private static final int WATERMARK_OFFSET = 24;
+
+	private static final Unsafe UNSAFE;
+	static {
+		try {
+			Field field = Unsafe.class.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			UNSAFE = (Unsafe) field.get(null);
+		} catch (ReflectiveOperationException ex) {
+			throw new ExceptionInInitializerError(ex);
+		}
+	}
+
+	private final Path path;
+	private final FileChannel channel;
+	private final MappedByteBuffer[] chunks;
+	private final long capacity;
+	private final long mask;
+	// read by other threads for stats
+	private volatile long size;
+
+
+	private MappedLongHashTable(Path path, FileChannel channel, long capacity) throws IOException {
+		this.path = path;
+		this.channel = channel;
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		long length = HEADER_SIZE + capacity * SLOT_SIZE;
+		int chunkCount = (int) ((length + CHUNK_MASK) >>> CHUNK_SHIFT);
+		this.chunks = new MappedByteBuffer[chunkCount];
+		for (int i = 0; i < chunkCount; i++) {
+			long start = (long) i << CHUNK_SHIFT;
+			chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(CHUNK_MASK + 1, length - start));
+		}
+	}
+
+	/**
+	 * Creates an empty table, replacing any existing file. The capacity is rounded up to a power of two.
+	 */
+	static MappedLongHashTable create(Path path, long minCapacity) throws IOException {
+		long capacity = Long.highestOneBit(Math.max(16, minCapacity - 1)) << 1;
+		Files.deleteIfExists(path);
+		try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+			file.setLength(HEADER_SIZE + capacity * SLOT_SIZE);
+		}
+		MappedLongHashTable table = new MappedLongHashTable(path, openChannel(path), capacity);
+		MappedByteBuffer header = table.chunks[0];
+		header.putLong(CAPACITY_OFFSET, capacity);
+		header.putLong(SIZE_OFFSET, 0);
+		header.putLong(WATERMARK_OFFSET, 0);
+		header.putLong(0, MAGIC);
+		return table;
+	}
+
+	/**
+	 * @return the table previously written to path, or null if there is none or the file isn't a valid table
+	 */
+	static MappedLongHashTable open(Path path) throws IOException {
+		if (!Files.isRegularFile(path) || Files.size(path) < HEADER_SIZE) {
+			return null;
+		}
+		FileChannel channel = openChannel(path);
+		MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+		long capacity = header.getLong(CAPACITY_OFFSET);
+		if (header.getLong(0) != MAGIC || Long.bitCount(capacity) != 1
+				|| Files.size(path) != HEADER_SIZE + capacity * SLOT_SIZE) {
+			channel.close();
+			return null;
+		}
+		MappedLongHashTable table = new MappedLongHashTable(path, channel, capacity);
+		table.size = header.getLong(SIZE_OFFSET);
+		return table;
+	}
+
+	private static FileChannel openChannel(Path path) throws IOException {
+		return new RandomAccessFile(path.toFile(), "rw").getChannel();
+	}
+
+
+	long capacity() {
+		return capacity;
+	}
+
+	long size() {
+		return size;
+	}
+
+	/**
+	 * @return true if adding count more entries would take the table over its maximum load factor
+	 */
+	boolean needsResize(long count) {
+		return size + count > capacity * MAX_LOAD;
+	}
+
+	/**
+	 * The position up to which the table's owner has indexed its data, persisted with the table.
+	 */
+	long getWatermark() {
+		return chunks[0].getLong(WATERMARK_OFFSET);
+	}
+
+	void setWatermark(long watermark) {
+		chunks[0].putLong(WATERMARK_OFFSET, watermark);
+	}
+
+	/**
+	 * @return the first value stored under key that the predicate accepts, or -1 if there is none
+	 */
+	long find(long key, LongPredicate accept) {
+		long slot = slotFor(key);
+		for (long probe = 0; probe < capacity; probe++) {
+			long stored = valueAt(slot);
+			if (stored == 0) {
+				return -1;
+			}
+			UNSAFE.loadFence();
+			if (keyAt(slot) == key && accept.test(stored - 1)) {
+				return stored - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds the entry unless the exact same key and value are already there, so replaying data is harmless.
+	 */
+	void put(long key, long value) {
+		if (size >= capacity - 1) {
+			throw new IllegalStateException("Hash table " + path + " is full");
+		}
+		long slot = slotFor(key);
+		while (true) {
+			long stored = valueAt(slot);
+			if (stored == 0) {
+				long offset = offsetOf(slot);
+				MappedByteBuffer chunk = chunks[(int) (offset >>> CHUNK_SHIFT)];
+				int position = (int) (offset & CHUNK_MASK);
+				chunk.putLong(position, key);
+				UNSAFE.storeFence();
+				chunk.putLong(position + 8, value + 1);
+				size++;
+				chunks[0].putLong(SIZE_OFFSET, size);
+				return;
+			}
+			if (stored == value + 1 && keyAt(slot) == key) {
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Copies every entry into a new table of the given capacity, which replaces this table's file once complete.
+	 * This table stays readable (and must then be closed by the caller).
+	 */
+	MappedLongHashTable resize(long newCapacity) throws IOException {
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		MappedLongHashTable resized = create(tmp, newCapacity);
+		for (long slot = 0; slot < capacity; slot++) {
+			long stored = valueAt(slot);
+			if (stored != 0) {
+				resized.put(keyAt(slot), stored - 1);
+			}
+		}
+		resized.setWatermark(getWatermark());
+		resized.force();
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return resized;
+	}
+
+	void force() {
+		for (MappedByteBuffer chunk : chunks) {
+			chunk.force();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		force();
+		channel.close();
+	}
+
+	private long slotFor(long key) {
+		// murmur3 finaliser, keys are often sequential or already hashes with weak low bits
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return key & mask;
+	}
+
+	private long offsetOf(long slot) {
+		return HEADER_SIZE + slot * SLOT_SIZE;
+	}
+
+	private long keyAt(long slot) {
+		long offset = offsetOf(slot);
+		return chunks[(int) (offset >>> CHUNK_SHIFT)].getLong((int) (offset & CHUNK_MASK));
+	}
+
+	private long valueAt(long slot) {
+		long offset = offsetOf(slot) + 8;
+		return chunks[(int) (offset >>> CHUNK_SHIFT)].getLong((int) (offset & CHUNK_MASK));
+	}
+}
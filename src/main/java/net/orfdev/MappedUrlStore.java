@@ -0,0 +1,382 @@
+package net.orfdev;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongConsumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+
+/**
+ * Embedded {@link UrlStore} that doesn't need a database: mappings are appended to a log file and found through
+ * memory-mapped hash indexes, so neither the url bytes nor the indexes live on the Java heap.
+ *
+ * <ul>
+ * <li>urls.log - append-only records of [int url length][long short url id][url as UTF-8], mapped 64 MB at a
+ * time. A record never spans two segments; the length is written last so a torn write reads as the end of the log.</li>
+ * <li>urls-short.idx - short url id to the record's position in the log</li>
+ * <li>urls-long.idx - {@link UrlHash} of the long url to the record's position, checked against the url bytes</li>
+ * </ul>
+ *
+ * The indexes remember how far into the log they got; on startup whatever was appended after that is re-indexed,
+ * and if they are missing or unreadable they are rebuilt from the whole log.
+ *
+ * Nothing is ever deleted from the log, so mappings with an expiry are refused.
+ */
+@Component
+@ConditionalOnProperty(name = "urlshort.storage", havingValue = "mapped")
+public class MappedUrlStore implements UrlStore {
+
+	private static final Logger log = LogManager.getLogger();
+
+	static final int SEGMENT_SHIFT = 26;
+	static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+	private static final int RECORD_HEADER = 12;
+	private static final int PADDING = -1;
+
+	@Value("${urlshort.mapped.directory:data}")
+	private String directory;
+
+	@Value("${urlshort.mapped.initial-capacity:1048576}")
+	private long initialCapacity;
+
+	private FileChannel logChannel;
+	private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+	// end of the last complete record; a record is only read once it is below this
+	private volatile long logEnd;
+
+	private volatile MappedLongHashTable byShortUrl;
+	private volatile MappedLongHashTable byLongUrl;
+
+
+	@PostConstruct
+	public void open() throws IOException {
+		Path dir = Paths.get(directory);
+		Files.createDirectories(dir);
+		logChannel = FileChannel.open(dir.resolve("urls.log"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		Path shortIndex = dir.resolve("urls-short.idx");
+		Path longIndex = dir.resolve("urls-long.idx");
+		byShortUrl = MappedLongHashTable.open(shortIndex);
+		byLongUrl = MappedLongHashTable.open(longIndex);
+
+		long from = 0;
+		if (byShortUrl != null && byLongUrl != null && byShortUrl.getWatermark() == byLongUrl.getWatermark()
+				&& byShortUrl.getWatermark() <= logChannel.size()) {
+			from = byShortUrl.getWatermark();
+		} else {
+			if (byShortUrl != null) byShortUrl.close();
+			if (byLongUrl != null) byLongUrl.close();
+			byShortUrl = MappedLongHashTable.create(shortIndex, initialCapacity);
+			byLongUrl = MappedLongHashTable.create(longIndex, initialCapacity);
+		}
+
+		long start = System.currentTimeMillis();
+		long indexed = 0;
+		long pos = from;
+		long fileSize = logChannel.size();
+		while (pos < fileSize) {
+			if (SEGMENT_SIZE - offset(pos) < RECORD_HEADER) {
+				pos = nextSegment(pos);
+				continue;
+			}
+			MappedByteBuffer segment = segment(pos);
+			int length = segment.getInt(offset(pos));
+			if (length == 0) {
+				break;
+			}
+			if (length == PADDING) {
+				pos = nextSegment(pos);
+				continue;
+			}
+			ensureCapacity(1);
+			byShortUrl.put(segment.getLong(offset(pos) + 4), pos);
+			byLongUrl.put(UrlHash.hash64(readUrl(segment, offset(pos), length)), pos);
+			pos += RECORD_HEADER + length;
+			indexed++;
+		}
+		logEnd = pos;
+		byShortUrl.setWatermark(pos);
+		byLongUrl.setWatermark(pos);
+		log.info("Opened url log in {} with {} mappings, re-indexed {} records from position {} in {} ms",
+				dir.toAbsolutePath(), byShortUrl.size(), indexed, from, System.currentTimeMillis() - start);
+	}
+
+	@PreDestroy
+	public synchronized void close() throws IOException {
+		for (MappedByteBuffer segment : segments) {
+			if (segment != null) {
+				segment.force();
+			}
+		}
+		byShortUrl.close();
+		byLongUrl.close();
+		logChannel.close();
+	}
+
+
+	// the log has no room for an expiry, nor a way to reclaim expired records
+	@Override
+	public boolean supportsExpiry() {
+		return false;
+	}
+
+	@Override
+	public synchronized void insert(long id, String longUrl) {
+		insertBatch(Arrays.asList(new UrlMapping(id, longUrl)));
+	}
+
+	@Override
+	public void prepareInsert(List<UrlMapping> mappings) {
+		// nothing is kept outside of the log
+	}
+
+	@Override
+	public synchronized void insertBatch(List<UrlMapping> mappings) {
+		// check everything up front so that either all the mappings are written or none is
+		Set<Long> ids = new HashSet<>();
+		for (UrlMapping mapping : mappings) {
+			if (mapping.getId() < 0) {
+				throw new IllegalArgumentException("Not a valid short url id: " + mapping.getId());
+			}
+			if (mapping.getExpiresAt() != UrlMapping.NEVER) {
+				throw new UnsupportedOperationException("Expiring short urls need urlshort.storage=jdbc");
+			}
+			if (!ids.add(mapping.getId()) || byShortUrl.find(mapping.getId(), p -> true) >= 0) {
+				throw new DuplicateKeyException("Short url already exists: " + mapping.getShortUrl());
+			}
+		}
+		ensureCapacity(mappings.size());
+
+		for (UrlMapping mapping : mappings) {
+			byte[] url = mapping.getLongUrl().getBytes(StandardCharsets.UTF_8);
+			long pos = append(mapping.getId(), url);
+			logEnd = pos + RECORD_HEADER + url.length;
+			byShortUrl.put(mapping.getId(), pos);
+			byLongUrl.put(UrlHash.hash64(mapping.getLongUrl()), pos);
+		}
+		byShortUrl.setWatermark(logEnd);
+		byLongUrl.setWatermark(logEnd);
+	}
+
+	@Override
+	public String findLongUrl(long id) {
+		if (id < 0) {
+			return null;
+		}
+		long pos = byShortUrl.find(id, p -> true);
+		if (pos < 0 || pos >= logEnd) {
+			return null;
+		}
+		MappedByteBuffer segment = segments[segmentIndex(pos)];
+		int offset = offset(pos);
+		return readUrl(segment, offset, segment.getInt(offset));
+	}
+
+	@Override
+	public UrlMapping findMapping(long id) {
+		String longUrl = findLongUrl(id);
+		return longUrl == null ? null : new UrlMapping(id, longUrl);
+	}
+
+	@Override
+	public Map<Long, String> findLongUrls(Collection<Long> ids) {
+		Map<Long, String> found = new HashMap<>();
+		for (Long id : ids) {
+			String longUrl = findLongUrl(id);
+			if (longUrl != null) {
+				found.put(id, longUrl);
+			}
+		}
+		return found;
+	}
+
+	@Override
+	public long findId(String longUrl) {
+		final byte[] url = longUrl.getBytes(StandardCharsets.UTF_8);
+		long pos = byLongUrl.find(UrlHash.hash64(longUrl), p -> p < logEnd && urlEquals(p, url));
+		if (pos < 0) {
+			return -1;
+		}
+		return segments[segmentIndex(pos)].getLong(offset(pos) + 4);
+	}
+
+	@Override
+	public Map<String, Long> findIds(Collection<String> longUrls) {
+		Map<String, Long> found = new HashMap<>();
+		for (String longUrl : longUrls) {
+			long id = findId(longUrl);
+			if (id >= 0) {
+				found.put(longUrl, id);
+			}
+		}
+		return found;
+	}
+
+	@Override
+	public long countAll() {
+		return byShortUrl.size();
+	}
+
+	// the count is kept in memory, so it is exact and just as cheap
+	@Override
+	public long estimateCount() {
+		return countAll();
+	}
+
+	// walks the log records up to its current end
+	@Override
+	public void forEachId(LongConsumer consumer) {
+		long end = logEnd;
+		long pos = 0;
+		while (pos < end) {
+			if (SEGMENT_SIZE - offset(pos) < RECORD_HEADER) {
+				pos = nextSegment(pos);
+				continue;
+			}
+			MappedByteBuffer segment = segment(pos);
+			int length = segment.getInt(offset(pos));
+			if (length == PADDING) {
+				pos = nextSegment(pos);
+				continue;
+			}
+			consumer.accept(segment.getLong(offset(pos) + 4));
+			pos += RECORD_HEADER + length;
+		}
+	}
+
+	// expiring mappings are never stored
+	@Override
+	public List<Long> purgeExpired(long nowMillis, int limit) {
+		return Collections.emptyList();
+	}
+
+
+	/**
+	 * @return the record's position in the log
+	 */
+	private long append(long key, byte[] url) {
+		if (url.length == 0 || RECORD_HEADER + url.length > SEGMENT_SIZE) {
+			throw new IllegalArgumentException("Url of " + url.length + " bytes can't be stored");
+		}
+		long pos = logEnd;
+		long remaining = SEGMENT_SIZE - offset(pos);
+		if (remaining < RECORD_HEADER + url.length) {
+			if (remaining >= 4) {
+				segment(pos).putInt(offset(pos), PADDING);
+			}
+			pos = nextSegment(pos);
+		}
+		MappedByteBuffer segment = segment(pos);
+		int offset = offset(pos);
+		segment.putLong(offset + 4, key);
+		ByteBuffer body = segment.duplicate();
+		body.position(offset + RECORD_HEADER);
+		body.put(url);
+		// the length goes last: until it is written the record reads as the end of the log
+		segment.putInt(offset, url.length);
+		return pos;
+	}
+
+	private void ensureCapacity(int count) {
+		if (!byShortUrl.needsResize(count)) {
+			return;
+		}
+		long capacity = byShortUrl.capacity() * 2;
+		while ((byShortUrl.size() + count) > capacity * 0.7) {
+			capacity *= 2;
+		}
+		try {
+			MappedLongHashTable oldShort = byShortUrl;
+			MappedLongHashTable oldLong = byLongUrl;
+			byShortUrl = oldShort.resize(capacity);
+			byLongUrl = oldLong.resize(capacity);
+			oldShort.close();
+			oldLong.close();
+			log.info("Resized url indexes to {} slots", capacity);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not resize url indexes", e);
+		}
+	}
+
+	private MappedByteBuffer segment(long pos) {
+		int index = segmentIndex(pos);
+		MappedByteBuffer[] current = segments;
+		if (index < current.length && current[index] != null) {
+			return current[index];
+		}
+		return mapSegment(index);
+	}
+
+	private synchronized MappedByteBuffer mapSegment(int index) {
+		MappedByteBuffer[] current = segments;
+		if (index < current.length && current[index] != null) {
+			return current[index];
+		}
+		try {
+			MappedByteBuffer[] grown = Arrays.copyOf(current, Math.max(current.length, index + 1));
+			grown[index] = logChannel.map(FileChannel.MapMode.READ_WRITE, (long) index << SEGMENT_SHIFT, SEGMENT_SIZE);
+			segments = grown;
+			return grown[index];
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not map url log segment " + index, e);
+		}
+	}
+
+	private boolean urlEquals(long pos, byte[] url) {
+		MappedByteBuffer segment = segments[segmentIndex(pos)];
+		int offset = offset(pos);
+		if (segment.getInt(offset) != url.length) {
+			return false;
+		}
+		int start = offset + RECORD_HEADER;
+		for (int i = 0; i < url.length; i++) {
+			if (segment.get(start + i) != url[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String readUrl(MappedByteBuffer segment, int offset, int length) {
+		byte[] url = new byte[length];
+		ByteBuffer body = segment.duplicate();
+		body.position(offset + RECORD_HEADER);
+		body.get(url);
+		return new String(url, StandardCharsets.UTF_8);
+	}
+
+	private static int segmentIndex(long pos) {
+		return (int) (pos >>> SEGMENT_SHIFT);
+	}
+
+	private static int offset(long pos) {
+		return (int) (pos & (SEGMENT_SIZE - 1));
+	}
+
+	private static long nextSegment(long pos) {
+		return (pos & ~(SEGMENT_SIZE - 1)) + SEGMENT_SIZE;
+	}
+}
@@ -0,0 +1,104 @@
+package net.orfdev;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+/**
+ * Dictionary of url origins (scheme, host and port, as {@link ParsedUrl#getOrigin()} has them) in the url_origins
+ * table, so the urls table stores a small number instead of repeating the same few prefixes on every row.
+ *
+ * Both directions are kept in memory; the table only grows with new hosts, which are rare next to new urls. An
+ * origin added by another node is read from the table the first time it is seen here. The dictionary stops
+ * taking new origins at {@link #MAX_ORIGINS}, after which urls with a new origin are stored in full, as are urls
+ * with an origin longer than {@link #MAX_ORIGIN_LENGTH}.
+ */
+public class OriginDictionary {
+
+	static final int MAX_ORIGINS = 1 << 16;
+	static final int MAX_ORIGIN_LENGTH = 256;
+
+	private final JdbcTemplate jdbctemplate;
+	private final ConcurrentHashMap<String, Integer> idsByOrigin = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Integer, String> originsById = new ConcurrentHashMap<>();
+
+
+	public OriginDictionary(JdbcTemplate jdbctemplate) {
+		this.jdbctemplate = jdbctemplate;
+		jdbctemplate.execute("CREATE TABLE If Not Exists url_origins (origin_id INT GENERATED BY DEFAULT AS IDENTITY Primary Key, "
+				+ "origin varchar(" + MAX_ORIGIN_LENGTH + ") NOT NULL UNIQUE)");
+		jdbctemplate.query("SELECT origin_id, origin FROM url_origins", rs -> {
+			remember(rs.getInt(1), rs.getString(2));
+		});
+	}
+
+	/**
+	 * @return the id of the origin, added to the dictionary if it is new, or -1 if the dictionary is full or the
+	 * origin is too long for it
+	 */
+	public int idFor(String origin) {
+		Integer id = idsByOrigin.get(origin);
+		if (id != null) {
+			return id;
+		}
+		if (originsById.size() >= MAX_ORIGINS || origin.length() > MAX_ORIGIN_LENGTH) {
+			return -1;
+		}
+		// on a connection of its own, committed straight away: the id is remembered here, so it has to stay valid even
+		// if the transaction of the write that asked for it rolls back
+		try (Connection con = jdbctemplate.getDataSource().getConnection()) {
+			con.setAutoCommit(true);
+			JdbcTemplate own = new JdbcTemplate(new SingleConnectionDataSource(con, true));
+			try {
+				own.update("INSERT INTO url_origins (origin) Values (?)", origin);
+			} catch (DuplicateKeyException ex) {
+				// another thread or node added it first
+			}
+			id = own.queryForObject("SELECT origin_id FROM url_origins WHERE origin = ?", Integer.class, origin);
+		} catch (SQLException ex) {
+			throw new CannotGetJdbcConnectionException("Could not add url origin " + origin, ex);
+		}
+		remember(id, origin);
+		return id;
+	}
+
+	/**
+	 * @return the id of the origin if the dictionary already holds it, else -1; never goes to the database, so it
+	 * can be called from within a transaction
+	 */
+	public int knownId(String origin) {
+		Integer id = idsByOrigin.get(origin);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @return the origin with that id, or null if there is none
+	 */
+	public String origin(int id) {
+		String origin = originsById.get(id);
+		if (origin == null) {
+			List<String> found = jdbctemplate.queryForList("SELECT origin FROM url_origins WHERE origin_id = ?", String.class, id);
+			if (found.isEmpty()) {
+				return null;
+			}
+			origin = found.get(0);
+			remember(id, origin);
+		}
+		return origin;
+	}
+
+	public int size() {
+		return originsById.size();
+	}
+
+	private void remember(int id, String origin) {
+		idsByOrigin.put(origin, id);
+		originsById.put(id, origin);
+	}
+}
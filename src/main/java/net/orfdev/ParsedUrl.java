@@ -0,0 +1,56 @@
+package net.orfdev;
+
+/**
+ * A long url that passed validation, split into its parts by {@link UrlValidator}.
+ */
+public class ParsedUrl {
+
+	private final String url;
+	private final String scheme;
+	private final String host;
+	private final int port;
+	private final int pathStart;
+
+	ParsedUrl(String url, String scheme, String host, int port, int pathStart) {
+		this.url = url;
+		this.scheme = scheme;
+		this.host = host;
+		this.port = port;
+		this.pathStart = pathStart;
+	}
+
+	/** @return the url exactly as it was submitted */
+	public String getUrl() {
+		return url;
+	}
+
+	/** @return "http" or "https", lower case */
+	public String getScheme() {
+		return scheme;
+	}
+
+	/** @return the host name, lower case */
+	public String getHost() {
+		return host;
+	}
+
+	/** @return the explicit port, or -1 if the url doesn't have one */
+	public int getPort() {
+		return port;
+	}
+
+	/** @return everything up to the end of the authority, eg. "https://www.orpheussoftware.co.uk:8443" */
+	public String getOrigin() {
+		return url.substring(0, pathStart);
+	}
+
+	/** @return the path, query and fragment, possibly empty */
+	public String getPathAndQuery() {
+		return url.substring(pathStart);
+	}
+
+	@Override
+	public String toString() {
+		return url;
+	}
+}
@@ -0,0 +1,104 @@
+package net.orfdev;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.StringUtils;
+
+/**
+ * Gives lookups their own connection pool, separate from the one writes use, so a burst of shortens can't starve
+ * redirects of connections.
+ *
+ * Writes keep using the spring.datasource pool, declared here as the @Primary DataSource and JdbcTemplate since
+ * Spring Boot backs off as soon as a second one exists. Reads go through the "readJdbcTemplate" bean, over a pool
+ * per read replica listed in urlshort.read-datasource.urls (round-robin with failover, see
+ * {@link ReplicaRoutingDataSource}). With no replicas listed the read pool connects to the primary database.
+ * Every pool is sized with the urlshort.read-datasource.tomcat properties.
+ */
+@Configuration
+@ConditionalOnProperty(name = "urlshort.read-datasource.enabled", havingValue = "true")
+public class ReadDataSourceConfig {
+
+	private static final Logger log = LogManager.getLogger();
+
+	private final List<org.apache.tomcat.jdbc.pool.DataSource> readPools = new ArrayList<>();
+
+
+	@Bean
+	@Primary
+	@ConfigurationProperties("spring.datasource")
+	public DataSourceProperties dataSourceProperties() {
+		return new DataSourceProperties();
+	}
+
+	@Bean
+	@Primary
+	@ConfigurationProperties("spring.datasource.tomcat")
+	public org.apache.tomcat.jdbc.pool.DataSource dataSource(DataSourceProperties properties) {
+		return properties.initializeDataSourceBuilder().type(org.apache.tomcat.jdbc.pool.DataSource.class).build();
+	}
+
+	@Bean
+	@Primary
+	public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+		return new JdbcTemplate(dataSource);
+	}
+
+	@Bean
+	public DataSource readDataSource(DataSourceProperties primary, Environment environment,
+			@Value("${urlshort.read-datasource.urls:}") String urls,
+			@Value("${urlshort.read-datasource.retry-after-millis:30000}") long retryAfterMillis,
+			@Qualifier("dataSource") DataSource fallback) {
+		String username = environment.getProperty("urlshort.read-datasource.username", primary.determineUsername());
+		String password = environment.getProperty("urlshort.read-datasource.password", primary.determinePassword());
+		if (!StringUtils.hasText(urls)) {
+			log.info("No read replicas configured, reads use their own pool on the primary database");
+			return readPool(environment, primary, primary.determineUrl(), username, password);
+		}
+		List<DataSource> replicas = new ArrayList<>();
+		for (String url : StringUtils.commaDelimitedListToStringArray(urls)) {
+			replicas.add(readPool(environment, primary, url.trim(), username, password));
+		}
+		log.info("Routing reads to {} replica(s)", replicas.size());
+		return new ReplicaRoutingDataSource(replicas, fallback, retryAfterMillis);
+	}
+
+	@Bean
+	public JdbcTemplate readJdbcTemplate(@Qualifier("readDataSource") DataSource readDataSource) {
+		return new JdbcTemplate(readDataSource);
+	}
+
+	private DataSource readPool(Environment environment, DataSourceProperties primary, String url, String username, String password) {
+		org.apache.tomcat.jdbc.pool.DataSource pool = DataSourceBuilder.create().type(org.apache.tomcat.jdbc.pool.DataSource.class)
+				.driverClassName(primary.determineDriverClassName()).url(url).username(username).password(password).build();
+		Binder.get(environment).bind("urlshort.read-datasource.tomcat", Bindable.ofInstance(pool));
+		pool.setDefaultReadOnly(true);
+		readPools.add(pool);
+		return pool;
+	}
+
+	@PreDestroy
+	public void close() {
+		for (org.apache.tomcat.jdbc.pool.DataSource pool : readPools) {
+			pool.close();
+		}
+	}
+}
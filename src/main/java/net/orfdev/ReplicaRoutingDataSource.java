@@ -0,0 +1,93 @@
+package net.orfdev;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+/**
+ * Hands out read connections from a list of replicas, round-robin.
+ *
+ * A replica that fails to give a connection is skipped for {@code retryAfterMillis} and the next one is tried.
+ * When every replica is down, connections come from the fallback (the primary) if there is one, so reads keep
+ * working at the cost of load on the primary.
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource {
+
+	private static final Logger log = LogManager.getLogger();
+
+	private final List<DataSource> replicas;
+	private final DataSource fallback;
+	private final long retryAfterMillis;
+
+	private final AtomicInteger next = new AtomicInteger();
+	// per replica, until when (epoch millis) it is skipped
+	private final AtomicLongArray downUntil;
+
+	/**
+	 * @param fallback used when no replica can give a connection; null to fail instead
+	 */
+	public ReplicaRoutingDataSource(List<DataSource> replicas, DataSource fallback, long retryAfterMillis) {
+		if (replicas.isEmpty() && fallback == null) {
+			throw new IllegalArgumentException("Need at least one replica or a fallback");
+		}
+		this.replicas = new ArrayList<>(replicas);
+		this.fallback = fallback;
+		this.retryAfterMillis = retryAfterMillis;
+		this.downUntil = new AtomicLongArray(replicas.size());
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return connect(DataSource::getConnection);
+	}
+
+	// the same routing, with the credentials passed on to whichever replica (or the fallback) is picked
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return connect(dataSource -> dataSource.getConnection(username, password));
+	}
+
+	private Connection connect(Connector connector) throws SQLException {
+		int size = replicas.size();
+		long now = System.currentTimeMillis();
+		SQLException failure = null;
+		int start = size == 0 ? 0 : Math.floorMod(next.getAndIncrement(), size);
+		for (int i = 0; i < size; i++) {
+			int index = (start + i) % size;
+			if (downUntil.get(index) > now) {
+				continue;
+			}
+			try {
+				return connector.connect(replicas.get(index));
+			} catch (SQLException ex) {
+				log.warn("Read replica [{}] unavailable, skipping it for {} ms", index, retryAfterMillis, ex);
+				downUntil.set(index, now + retryAfterMillis);
+				failure = ex;
+			}
+		}
+		if (fallback != null) {
+			return connector.connect(fallback);
+		}
+		throw failure != null ? failure : new SQLException("All read replicas are marked down");
+	}
+
+	private interface Connector {
+		Connection connect(DataSource dataSource) throws SQLException;
+	}
+
+	/**
+	 * @return the replicas, in round-robin order
+	 */
+	public List<DataSource> getReplicas() {
+		return replicas;
+	}
+}
@@ -0,0 +1,187 @@
+package net.orfdev;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs the redirect and shorten handlers, either on the Tomcat request thread or off it.
+ *
+ * In the default "blocking" mode a handler simply runs inline. In "async" mode (the async profile) the request is
+ * switched to servlet async and the handler runs on a separate executor, so Tomcat threads go straight back to
+ * accepting connections instead of sitting on JDBC calls. Back-pressure towards the database:
+ * <ul>
+ * <li>at most {@code max-concurrency} handlers run at once; sized to the JDBC pool so they don't queue again inside it</li>
+ * <li>at most {@code queue-capacity} more wait for their turn</li>
+ * <li>anything beyond that gets a 503 with Retry-After straight away rather than piling up</li>
+ * </ul>
+ * When the JVM has virtual threads (Java 21+) handlers run on them, otherwise on a pool of {@code max-concurrency}
+ * platform threads.
+ */
+@Component
+public class RequestExecutor {
+
+	private static final Logger log = LogManager.getLogger();
+
+	@Value("${urlshort.execution.mode:blocking}")
+	private String mode;
+
+	@Value("${urlshort.execution.max-concurrency:10}")
+	private int maxConcurrency;
+
+	@Value("${urlshort.execution.queue-capacity:1000}")
+	private int queueCapacity;
+
+	@Value("${urlshort.execution.timeout-millis:10000}")
+	private long timeoutMillis;
+
+	@Value("${urlshort.execution.virtual-threads:true}")
+	private boolean virtualThreads;
+
+	private boolean async;
+	private ExecutorService executor;
+	private Semaphore permits;
+	// handlers running or waiting, bounded by maxConcurrency + queueCapacity
+	private final AtomicInteger admitted = new AtomicInteger();
+
+
+	@PostConstruct
+	public void init() {
+		if (!"blocking".equals(mode) && !"async".equals(mode)) {
+			throw new IllegalArgumentException("urlshort.execution.mode must be blocking or async but was " + mode);
+		}
+		async = "async".equals(mode);
+		if (async) {
+			permits = new Semaphore(maxConcurrency);
+			executor = newExecutor();
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() throws InterruptedException {
+		if (executor != null) {
+			executor.shutdown();
+			executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+
+	public boolean isAsync() {
+		return async;
+	}
+
+	/**
+	 * Runs the handler for the request. In async mode this returns before the handler has run and the response is
+	 * completed by the executor; exceptions thrown by the handler are then turned into a 500. In blocking mode they
+	 * propagate to Spring as usual.
+	 */
+	public void execute(HttpServletRequest request, HttpServletResponse response, Handler handler) throws Exception {
+		if (!async) {
+			handler.handle(response);
+			return;
+		}
+		if (admitted.incrementAndGet() > maxConcurrency + queueCapacity) {
+			admitted.decrementAndGet();
+			reject(response);
+			return;
+		}
+		final AsyncContext context = request.startAsync(request, response);
+		context.setTimeout(timeoutMillis);
+		try {
+			executor.execute(() -> run(context, handler));
+		} catch (RejectedExecutionException e) {
+			// shutting down
+			admitted.decrementAndGet();
+			reject(response);
+			context.complete();
+		}
+	}
+
+	private void run(AsyncContext context, Handler handler) {
+		HttpServletResponse response = (HttpServletResponse) context.getResponse();
+		try {
+			permits.acquire();
+			try {
+				handler.handle(response);
+			} finally {
+				permits.release();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			reject(response);
+		} catch (Exception e) {
+			log.error("Request handler failed", e);
+			if (!response.isCommitted()) {
+				response.reset();
+				response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+				response.setContentLength(0);
+			}
+		} finally {
+			admitted.decrementAndGet();
+			try {
+				context.complete();
+			} catch (IllegalStateException e) {
+				// the container already timed the request out
+				log.debug("Request completed after its async timeout", e);
+			}
+		}
+	}
+
+	private static void reject(HttpServletResponse response) {
+		if (!response.isCommitted()) {
+			response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+			response.setContentLength(0);
+		}
+	}
+
+	private ExecutorService newExecutor() {
+		if (virtualThreads) {
+			try {
+				// looked up reflectively so the build can keep targeting Java 8
+				Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				log.info("Running request handlers on virtual threads, at most {} at once", maxConcurrency);
+				return (ExecutorService) factory.invoke(null);
+			} catch (NoSuchMethodException e) {
+				log.info("Virtual threads need Java 21, running request handlers on a pool of {} threads", maxConcurrency);
+			} catch (ReflectiveOperationException e) {
+				log.warn("Could not create a virtual thread executor, running request handlers on a pool of {} threads", maxConcurrency, e);
+			}
+		}
+		final AtomicInteger threadCount = new AtomicInteger();
+		ThreadFactory threadFactory = runnable -> {
+			Thread thread = new Thread(runnable, "request-handler-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		// admission is bounded by admitted, so the queue itself needn't be
+		return new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), threadFactory);
+	}
+
+
+	/**
+	 * A handler writing its whole result onto the response.
+	 */
+	public interface Handler {
+		void handle(HttpServletResponse response) throws Exception;
+	}
+}
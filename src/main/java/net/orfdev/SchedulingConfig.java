@@ -0,0 +1,13 @@
+package net.orfdev;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Turns on @Scheduled so background jobs (eg. flushing click counts) run on Spring's task scheduler.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+
+}
@@ -0,0 +1,138 @@
+package net.orfdev;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Helpers for the small schema migrations run on startup. Both HSQL and PostgreSQL are supported, so instead of
+ * relying on dialect specific "IF NOT EXISTS" clauses we ask the JDBC metadata what is already there.
+ */
+public final class SchemaSupport {
+
+	private static final Logger log = LogManager.getLogger();
+
+	private SchemaSupport() {
+	}
+
+	public static boolean columnExists(JdbcTemplate jdbctemplate, final String table, final String column) {
+		return jdbctemplate.execute((ConnectionCallback<Boolean>) con -> {
+			DatabaseMetaData metaData = con.getMetaData();
+			try (ResultSet rs = metaData.getColumns(null, null, identifier(metaData, table), identifier(metaData, column))) {
+				return rs.next();
+			}
+		});
+	}
+
+	public static boolean tableExists(JdbcTemplate jdbctemplate, final String table) {
+		return jdbctemplate.execute((ConnectionCallback<Boolean>) con -> {
+			DatabaseMetaData metaData = con.getMetaData();
+			try (ResultSet rs = metaData.getTables(null, null, identifier(metaData, table), new String[] {"TABLE"})) {
+				return rs.next();
+			}
+		});
+	}
+
+	/**
+	 * Drops the table if it exists.
+	 */
+	public static void dropTable(JdbcTemplate jdbctemplate, String table) {
+		if (tableExists(jdbctemplate, table)) {
+			jdbctemplate.execute("DROP TABLE " + table);
+		}
+	}
+
+	/**
+	 * Puts a fully copied replacement in the place of the table. The table is renamed aside (to table_old) before the
+	 * replacement takes its name, both in one transaction where the database has transactional DDL, and only dropped
+	 * afterwards, so there is no point at which a crash leaves neither; {@link #resumeSwap} finishes the job on the
+	 * next start.
+	 */
+	public static void swapTable(JdbcTemplate jdbctemplate, final String table, final String replacement) {
+		jdbctemplate.execute((ConnectionCallback<Void>) con -> {
+			boolean transactional = con.getMetaData().supportsDataDefinitionAndDataManipulationTransactions();
+			boolean autoCommit = con.getAutoCommit();
+			if (transactional) {
+				con.setAutoCommit(false);
+			}
+			try (Statement statement = con.createStatement()) {
+				statement.execute("ALTER TABLE " + table + " RENAME TO " + table + "_old");
+				statement.execute("ALTER TABLE " + replacement + " RENAME TO " + table);
+				if (transactional) {
+					con.commit();
+				}
+			} catch (SQLException ex) {
+				if (transactional) {
+					con.rollback();
+				}
+				throw ex;
+			} finally {
+				con.setAutoCommit(autoCommit);
+			}
+			return null;
+		});
+		dropTable(jdbctemplate, table + "_old");
+	}
+
+	/**
+	 * Completes a {@link #swapTable} cut short by a crash. The replacement only takes part in a swap once its copy has
+	 * finished, so if the table itself is missing the replacement is complete and takes its name (or the old table
+	 * goes back if there is no replacement); an old table left next to the table is dropped. A replacement next to
+	 * an existing table is an interrupted copy, left for the migration to start over.
+	 */
+	public static void resumeSwap(JdbcTemplate jdbctemplate, String table, String replacement) {
+		String old = table + "_old";
+		if (!tableExists(jdbctemplate, table)) {
+			if (tableExists(jdbctemplate, replacement)) {
+				log.warn("Resuming the swap of {} into {} interrupted on the last run", replacement, table);
+				jdbctemplate.execute("ALTER TABLE " + replacement + " RENAME TO " + table);
+			} else if (tableExists(jdbctemplate, old)) {
+				log.warn("Putting {} back as {}, its replacement is missing", old, table);
+				jdbctemplate.execute("ALTER TABLE " + old + " RENAME TO " + table);
+			}
+		}
+		if (tableExists(jdbctemplate, table)) {
+			dropTable(jdbctemplate, old);
+		}
+	}
+
+	public static boolean indexExists(JdbcTemplate jdbctemplate, final String table, final String index) {
+		return jdbctemplate.execute((ConnectionCallback<Boolean>) con -> {
+			DatabaseMetaData metaData = con.getMetaData();
+			try (ResultSet rs = metaData.getIndexInfo(null, null, identifier(metaData, table), false, true)) {
+				while (rs.next()) {
+					if (index.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+						return true;
+					}
+				}
+				return false;
+			}
+		});
+	}
+
+	/**
+	 * Creates the index unless one with the same name already exists on the table.
+	 */
+	public static void createIndex(JdbcTemplate jdbctemplate, String table, String index, String columns) {
+		if (!indexExists(jdbctemplate, table, index)) {
+			jdbctemplate.execute("CREATE INDEX " + index + " ON " + table + " (" + columns + ")");
+		}
+	}
+
+	// unquoted identifiers are folded to upper case by HSQL and to lower case by PostgreSQL
+	private static String identifier(DatabaseMetaData metaData, String name) throws SQLException {
+		if (metaData.storesUpperCaseIdentifiers()) {
+			return name.toUpperCase();
+		}
+		if (metaData.storesLowerCaseIdentifiers()) {
+			return name.toLowerCase();
+		}
+		return name;
+	}
+}
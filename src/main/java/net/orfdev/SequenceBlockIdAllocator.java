@@ -0,0 +1,122 @@
+package net.orfdev;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Allocates ids from blocks leased out of a shared sequence row in the database.
+ *
+ * A node leases a block of {@code block-size} ids at a time with a compare-and-set UPDATE, so the database is
+ * only touched once per block. Request threads then take ids from the node's {@link IdBlock} with an atomic
+ * increment, so the common case takes no lock and nothing is kept per thread. Each id is scrambled before
+ * being handed out so consecutive short urls don't look consecutive.
+ */
+@Component
+@ConditionalOnProperty(name = "urlshort.id.allocator", havingValue = "sequence", matchIfMissing = true)
+public class SequenceBlockIdAllocator implements IdAllocator {
+
+	private static final Logger log = LogManager.getLogger();
+
+	static final String SEQUENCE_NAME = "short_url";
+
+	@Autowired
+	private JdbcTemplate jdbctemplate;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${urlshort.id.block-size:10000}")
+	private int blockSize;
+
+	@Value("${urlshort.id.scramble-key:0x2545F4914F6CDD1D}")
+	private String scrambleKey;
+
+	private IdScrambler scrambler;
+	private Counter leaseRetries;
+
+	// the node's current block, replaced under leaseLock once used up
+	private volatile IdBlock block = IdBlock.EMPTY;
+	// a lock rather than a monitor: the lease is a database round trip, and a virtual thread blocked in a monitor
+	// pins its carrier thread
+	private final ReentrantLock leaseLock = new ReentrantLock();
+
+
+	@PostConstruct
+	public void init() {
+		jdbctemplate.execute("CREATE TABLE If Not Exists id_blocks (name varchar(32) Primary Key, next_value BIGINT NOT NULL)");
+		Integer rows = jdbctemplate.queryForObject("SELECT COUNT(*) FROM id_blocks WHERE name = ?", Integer.class, SEQUENCE_NAME);
+		if (rows == null || rows == 0) {
+			try {
+				// the sequence starts at 1, 0 is never leased
+				jdbctemplate.update("INSERT INTO id_blocks (name, next_value) Values (?, 1)", SEQUENCE_NAME);
+			} catch (DuplicateKeyException e) {
+				log.debug("Sequence row [{}] created concurrently by another node", SEQUENCE_NAME);
+			}
+		}
+		scrambler = new IdScrambler(Long.decode(scrambleKey));
+		// what used to be primary key collision retries: with leased blocks the only contention left is on the lease
+		leaseRetries = Counter.builder("urlshort.id.lease.retries")
+				.description("Id block leases retried because another node moved the sequence first").register(meterRegistry);
+	}
+
+
+	@Override
+	public long nextId() {
+		while (true) {
+			IdBlock current = block;
+			long id = current.take();
+			if (id >= 0) {
+				return scrambler.scramble(id);
+			}
+			renew(current);
+		}
+	}
+
+	private void renew(IdBlock used) {
+		leaseLock.lock();
+		try {
+			// another thread may have leased the next block while this one waited
+			if (block == used) {
+				long start = leaseBlock();
+				block = new IdBlock(start, start + blockSize);
+			}
+		} finally {
+			leaseLock.unlock();
+		}
+	}
+
+	/**
+	 * Moves the shared sequence forward by one block with an optimistic compare-and-set and returns the
+	 * first id of the block now owned by this node.
+	 */
+	private long leaseBlock() {
+		for (int attempt = 1; attempt <= UtilityCheck.NUM_MAX_TIMES; attempt++) {
+			long current = jdbctemplate.queryForObject("SELECT next_value FROM id_blocks WHERE name = ?", Long.class, SEQUENCE_NAME);
+			if (current + blockSize > IdScrambler.MASK) {
+				throw new IllegalStateException("Short url id space exhausted at " + current);
+			}
+			int updated = jdbctemplate.update("UPDATE id_blocks SET next_value = ? WHERE name = ? AND next_value = ?",
+					current + blockSize, SEQUENCE_NAME, current);
+			if (updated == 1) {
+				log.info("Leased id block [{}, {})", current, current + blockSize);
+				return current;
+			}
+			log.debug("Id block lease contended, attempt {}", attempt);
+			leaseRetries.increment();
+		}
+		throw new IllegalStateException("Could not lease an id block after " + UtilityCheck.NUM_MAX_TIMES + " attempts");
+	}
+}
@@ -0,0 +1,287 @@
+package net.orfdev;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Allocates ids from a shard of the id space owned by this node, so nodes sharing a database never contend.
+ *
+ * The id space is cut into {@code shards} fixed ranges, one row each in the id_shards table. At startup a node
+ * claims a shard whose lease is free or expired and keeps it alive with a heartbeat; a node that dies simply
+ * stops heartbeating and its shard can be claimed by another one once {@code lease-millis} have passed.
+ *
+ * Ids are issued locally from the shard. Before a block of {@code block-size} ids is used, the shard's next_value
+ * is moved past it with an UPDATE that only succeeds while this node is still the owner. Whoever claims the shard
+ * next carries on from next_value, so even a node that was paused past its lease can't issue an id twice: it
+ * finishes the block it already reserved and fails to reserve the next one. That UPDATE only touches the node's own
+ * row, so outside of claiming a shard at startup there are no retries. Node clocks only decide when a lease counts
+ * as expired, never which ids are handed out.
+ *
+ * Request threads take ids from the block with an atomic increment and ids are scrambled, as in
+ * {@link SequenceBlockIdAllocator}.
+ * A database that has been issuing ids from that allocator's sequence can switch over, provided the scramble-key is
+ * the same: the shards are moved past the sequence's next_value at startup, so the ids it handed out are never
+ * issued again. Switching back is not supported.
+ */
+@Component
+@ConditionalOnProperty(name = "urlshort.id.allocator", havingValue = "shard")
+public class ShardLeaseIdAllocator implements IdAllocator {
+
+	private static final Logger log = LogManager.getLogger();
+
+	@Autowired
+	private JdbcTemplate jdbctemplate;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${urlshort.id.shards:1024}")
+	private int shardCount;
+
+	@Value("${urlshort.id.lease-millis:60000}")
+	private long leaseMillis;
+
+	@Value("${urlshort.id.block-size:10000}")
+	private int blockSize;
+
+	@Value("${urlshort.id.scramble-key:0x2545F4914F6CDD1D}")
+	private String scrambleKey;
+
+	// tells the nodes apart in id_shards.owner
+	private final String owner = UUID.randomUUID().toString();
+
+	private IdScrambler scrambler;
+	private Counter claimRetries;
+
+	// guards the shard and the reserving of blocks; a lock rather than a monitor because both go to the database, and
+	// a virtual thread blocked in a monitor pins its carrier thread
+	private final ReentrantLock lock = new ReentrantLock();
+
+	// the shard owned by this node (-1 for none) and its end; guarded by lock
+	private int shard = -1;
+	private long shardEnd;
+
+	// the reserved block, replaced under lock once used up
+	private volatile IdBlock block = IdBlock.EMPTY;
+
+
+	@PostConstruct
+	public void init() {
+		jdbctemplate.execute("CREATE TABLE If Not Exists id_shards (shard INT Primary Key, range_start BIGINT NOT NULL, range_end BIGINT NOT NULL, "
+				+ "next_value BIGINT NOT NULL, owner varchar(64), lease_expires BIGINT NOT NULL)");
+		createShards();
+		scrambler = new IdScrambler(Long.decode(scrambleKey));
+		claimRetries = Counter.builder("urlshort.id.shard.claim.retries")
+				.description("Shard claims lost to another node claiming the same shard first").register(meterRegistry);
+		lock.lock();
+		try {
+			claimShard();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Inserts the rows missing from id_shards. Nodes starting together may insert the same rows, the loser of
+	 * each race just moves on.
+	 */
+	private void createShards() {
+		long shardSize = (IdScrambler.MASK + 1) / shardCount;
+		Integer mismatched = jdbctemplate.queryForObject("SELECT COUNT(*) FROM id_shards WHERE shard >= ? OR range_end - range_start <> ?",
+				Integer.class, shardCount, shardSize);
+		if (mismatched != null && mismatched > 0) {
+			// resizing would make the new shards overlap ids already issued from the old ones
+			throw new IllegalStateException("id_shards was created with a different number of shards than " + shardCount);
+		}
+		Set<Integer> existing = new HashSet<>(jdbctemplate.queryForList("SELECT shard FROM id_shards", Integer.class));
+		for (int i = 0; i < shardCount; i++) {
+			if (existing.contains(i)) {
+				continue;
+			}
+			long first = i * shardSize;
+			try {
+				// 0 is never issued, as with the sequence
+				jdbctemplate.update("INSERT INTO id_shards (shard, range_start, range_end, next_value, owner, lease_expires) Values (?,?,?,?,NULL,0)",
+						i, first, first + shardSize, Math.max(first, 1));
+			} catch (DuplicateKeyException e) {
+				log.debug("Shard [{}] created concurrently by another node", i);
+			}
+		}
+		skipSequenceIds();
+	}
+
+	/**
+	 * Moves every shard past the ids already issued by {@link SequenceBlockIdAllocator}, if it has been in use: the
+	 * shards below its next_value are used up, the one it falls in carries on from it. Only ever moves next_value
+	 * up, so running it again on every startup changes nothing once done.
+	 */
+	private void skipSequenceIds() {
+		if (!SchemaSupport.tableExists(jdbctemplate, "id_blocks")) {
+			return;
+		}
+		List<Long> sequence = jdbctemplate.queryForList("SELECT next_value FROM id_blocks WHERE name = ?", Long.class,
+				SequenceBlockIdAllocator.SEQUENCE_NAME);
+		if (sequence.isEmpty()) {
+			return;
+		}
+		long issuedUpTo = sequence.get(0);
+		int moved = jdbctemplate.update("UPDATE id_shards SET next_value = CASE WHEN range_end < ? THEN range_end ELSE ? END WHERE next_value < ?",
+				issuedUpTo, issuedUpTo, issuedUpTo);
+		if (moved > 0) {
+			log.info("Moved {} id shards past the {} ids already leased from the sequence", moved, issuedUpTo);
+		}
+	}
+
+
+	@Override
+	public long nextId() {
+		while (true) {
+			IdBlock current = block;
+			long id = current.take();
+			if (id >= 0) {
+				return scrambler.scramble(id);
+			}
+			renew(current);
+		}
+	}
+
+	private void renew(IdBlock used) {
+		lock.lock();
+		try {
+			// another thread may have reserved the next block while this one waited
+			if (block == used) {
+				reserveBlock();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Moves the owned shard's next_value past a new block, claiming another shard first if this one is used up
+	 * or has been lost.
+	 */
+	private void reserveBlock() {
+		while (true) {
+			if (shard < 0) {
+				claimShard();
+			}
+			Long from = jdbctemplate.queryForObject("SELECT next_value FROM id_shards WHERE shard = ?", Long.class, shard);
+			if (from >= shardEnd) {
+				log.info("Id shard [{}] is used up", shard);
+				release();
+				continue;
+			}
+			long to = Math.min(shardEnd, from + blockSize);
+			int updated = jdbctemplate.update("UPDATE id_shards SET next_value = ?, lease_expires = ? WHERE shard = ? AND owner = ? AND next_value = ?",
+					to, System.currentTimeMillis() + leaseMillis, shard, owner, from);
+			if (updated == 1) {
+				block = new IdBlock(from, to);
+				return;
+			}
+			log.warn("Lease on id shard [{}] was lost, claiming another one", shard);
+			shard = -1;
+		}
+	}
+
+	/**
+	 * Claims a shard that is unowned or whose lease has expired. Candidates are tried in random order so that
+	 * nodes starting together rarely go for the same one.
+	 */
+	private void claimShard() {
+		long now = System.currentTimeMillis();
+		List<Integer> candidates = new ArrayList<>(jdbctemplate.queryForList(
+				"SELECT shard FROM id_shards WHERE (owner IS NULL OR lease_expires < ?) AND next_value < range_end", Integer.class, now));
+		Collections.shuffle(candidates);
+		for (Integer candidate : candidates) {
+			int updated = jdbctemplate.update("UPDATE id_shards SET owner = ?, lease_expires = ? WHERE shard = ? AND (owner IS NULL OR lease_expires < ?)",
+					owner, now + leaseMillis, candidate, now);
+			if (updated == 1) {
+				shard = candidate;
+				shardEnd = jdbctemplate.queryForObject("SELECT range_end FROM id_shards WHERE shard = ?", Long.class, shard);
+				log.info("Claimed id shard [{}] as [{}]", shard, owner);
+				return;
+			}
+			log.debug("Id shard [{}] claimed concurrently by another node", candidate);
+			claimRetries.increment();
+		}
+		throw new IllegalStateException("No free id shard out of " + shardCount);
+	}
+
+	@Scheduled(fixedDelayString = "${urlshort.id.heartbeat-interval-millis:15000}")
+	public void heartbeat() {
+		lock.lock();
+		try {
+			if (shard >= 0) {
+				renewLease();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void renewLease() {
+		try {
+			int updated = jdbctemplate.update("UPDATE id_shards SET lease_expires = ? WHERE shard = ? AND owner = ?",
+					System.currentTimeMillis() + leaseMillis, shard, owner);
+			if (updated == 0) {
+				// the block already reserved is still ours to use, the next one comes from a new shard
+				log.warn("Lease on id shard [{}] was lost", shard);
+				shard = -1;
+			}
+		} catch (DataAccessException ex) {
+			// the lease has leaseMillis to survive a database hiccup
+			log.warn("Could not renew the lease on id shard [{}]", shard, ex);
+		}
+	}
+
+	@PreDestroy
+	public void release() {
+		lock.lock();
+		try {
+			if (shard < 0) {
+				return;
+			}
+			// the unused rest of the reserved block is simply skipped
+			jdbctemplate.update("UPDATE id_shards SET owner = NULL, lease_expires = 0 WHERE shard = ? AND owner = ?", shard, owner);
+			log.info("Released id shard [{}]", shard);
+			shard = -1;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the shard currently owned by this node, -1 if none
+	 */
+	public int getShard() {
+		lock.lock();
+		try {
+			return shard;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
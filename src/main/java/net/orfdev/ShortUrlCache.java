@@ -0,0 +1,448 @@
+package net.orfdev;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Size and TTL bounded cache of short url id -> long url mappings sitting in front of the database.
+ *
+ * Unknown codes are cached as negative entries (with their own, shorter, TTL) so that bots probing
+ * random paths don't reach the DB on every request. The cache is split into segments, each one a
+ * small LRU guarded by its own lock, so redirect threads rarely contend.
+ *
+ * Keys are the primitive long ids: a segment is an open addressing table of indexes into parallel
+ * arrays (key, entry, LRU links) allocated once at startup, so the only object per cached mapping
+ * is its {@link Entry}.
+ *
+ * A mapping with an expiry of its own is never cached past it, so expired links stop redirecting on time without
+ * the cache being told.
+ *
+ * Long urls aren't held as Strings: an entry keeps the url's origin (see {@link ParsedUrl#getOrigin()}),
+ * one instance shared by every entry with the same origin, and the rest of the url as UTF-8 bytes, which are only
+ * decoded when the redirect is written.
+ */
+@Component
+public class ShortUrlCache implements MeterBinder {
+
+	@Value("${urlshort.cache.maximum-size:100000}")
+	private int maximumSize;
+
+	@Value("${urlshort.cache.ttl-seconds:600}")
+	private long ttlSeconds;
+
+	@Value("${urlshort.cache.negative-ttl-seconds:30}")
+	private long negativeTtlSeconds;
+
+	private static final int SEGMENTS = 16;
+	private static final int MAX_ORIGINS = 1 << 16;
+
+	private Segment[] segments;
+	private long ttlNanos;
+	private long negativeTtlNanos;
+
+	// one instance of every origin, so entries share it
+	private final ConcurrentHashMap<String, String> origins = new ConcurrentHashMap<>();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+
+	@PostConstruct
+	public void init() {
+		int perSegment = Math.max(1, maximumSize / SEGMENTS);
+		segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(perSegment);
+		}
+		ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+		negativeTtlNanos = TimeUnit.SECONDS.toNanos(negativeTtlSeconds);
+	}
+
+
+	/**
+	 * Returns the cached entry for the short url id, or null if the DB has to be asked. A non-null entry
+	 * with a null {@link Entry#getLongUrl()} means the code is known not to exist.
+	 */
+	public Entry get(long id) {
+		long hash = hash(id);
+		Entry entry = segmentFor(hash).get(id, (int) hash, System.nanoTime());
+		if (entry == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return entry;
+	}
+
+	/**
+	 * Caches the result of a DB lookup; a null longUrl is stored as a negative entry. A negative entry
+	 * never replaces a positive one, so a lookup racing with an insert can't hide the new mapping.
+	 */
+	public void put(long id, String longUrl) {
+		put(new UrlMapping(id, longUrl));
+	}
+
+	/**
+	 * Caches a mapping that stops redirecting at expiresAtMillis (epoch millis, {@link UrlMapping#NEVER} if it
+	 * doesn't): the entry expires at whichever comes first of that and the cache TTL.
+	 */
+	public void put(long id, String longUrl, long expiresAtMillis) {
+		put(new UrlMapping(id, longUrl, expiresAtMillis));
+	}
+
+	/**
+	 * Caches the mapping, as {@link #put(long, String, long)}; a mapping made from a {@link ParsedUrl} is split
+	 * without parsing the url again.
+	 */
+	public void put(UrlMapping mapping) {
+		long id = mapping.getId();
+		long hash = hash(id);
+		long now = System.nanoTime();
+		long ttl = ttlNanos;
+		boolean expiring = mapping.getLongUrl() != null && mapping.getExpiresAt() != UrlMapping.NEVER;
+		if (expiring) {
+			ttl = Math.min(ttl, TimeUnit.MILLISECONDS.toNanos(mapping.getExpiresAt() - System.currentTimeMillis()));
+		}
+		if (mapping.getLongUrl() == null || ttl <= 0) {
+			segmentFor(hash).putIfAbsent(id, (int) hash, new Entry(null, null, now + negativeTtlNanos, false), now);
+		} else {
+			segmentFor(hash).put(id, (int) hash, entry(mapping, now + ttl, expiring));
+		}
+	}
+
+	// a url that doesn't parse (stored before the validator's rules) is kept whole, under the empty origin
+	private Entry entry(UrlMapping mapping, long expiresAt, boolean expiring) {
+		ParsedUrl parsed = mapping.getParsedUrl();
+		String origin = parsed == null ? "" : parsed.getOrigin();
+		String rest = parsed == null ? mapping.getLongUrl() : parsed.getPathAndQuery();
+		return new Entry(intern(origin), rest.getBytes(StandardCharsets.UTF_8), expiresAt, expiring);
+	}
+
+	private String intern(String origin) {
+		String shared = origins.get(origin);
+		if (shared == null) {
+			if (origins.size() >= MAX_ORIGINS) {
+				return origin;
+			}
+			shared = origins.putIfAbsent(origin, origin);
+			if (shared == null) {
+				shared = origin;
+			}
+		}
+		return shared;
+	}
+
+	public void invalidate(long id) {
+		long hash = hash(id);
+		segmentFor(hash).remove(id, (int) hash);
+	}
+
+	/**
+	 * Drops the entry only if it is a negative one, eg. once the code is known to have been inserted elsewhere.
+	 */
+	public void invalidateNegative(long id) {
+		long hash = hash(id);
+		segmentFor(hash).removeNegative(id, (int) hash);
+	}
+
+	/**
+	 * Visits the live (unexpired, non negative) mappings segment by segment, least recently used first within each
+	 * segment, so putting them back in the same order restores the recency order. Each segment is locked while it is
+	 * visited. Mappings with an expiry of their own are left out, the visitor couldn't put them back with it.
+	 */
+	public void forEach(MappingVisitor visitor) {
+		long now = System.nanoTime();
+		for (Segment segment : segments) {
+			segment.forEach(visitor, now);
+		}
+	}
+
+	public long size() {
+		long size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("urlshort.cache.requests", hits, LongAdder::sum).tag("result", "hit")
+				.description("Short url cache lookups answered from memory").register(registry);
+		FunctionCounter.builder("urlshort.cache.requests", misses, LongAdder::sum).tag("result", "miss")
+				.description("Short url cache lookups that went to the database").register(registry);
+		FunctionCounter.builder("urlshort.cache.evictions", evictions, LongAdder::sum)
+				.description("Entries dropped from the short url cache because of size or expiry").register(registry);
+		Gauge.builder("urlshort.cache.size", this, ShortUrlCache::size)
+				.description("Entries currently held in the short url cache").register(registry);
+	}
+
+	// murmur3 finaliser: ids are scrambled already but a cheap mix keeps the table honest for any key
+	private static long hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return key;
+	}
+
+	// the high bits pick the segment, the low bits the slot within it
+	private Segment segmentFor(long hash) {
+		return segments[(int) (hash >>> 60) & (SEGMENTS - 1)];
+	}
+
+
+	public interface MappingVisitor {
+		void visit(long id, String longUrl);
+	}
+
+
+	public static final class Entry {
+
+		// shared with the other entries of the same origin; null for a negative entry
+		private final String origin;
+		// the rest of the url, UTF-8 encoded
+		private final byte[] rest;
+		final long expiresAt;
+		// the mapping has an expiry of its own, expiresAt is bounded by it
+		final boolean expiring;
+
+		Entry(String origin, byte[] rest, long expiresAt, boolean expiring) {
+			this.origin = origin;
+			this.rest = rest;
+			this.expiresAt = expiresAt;
+			this.expiring = expiring;
+		}
+
+		/**
+		 * @return the long url, decoded on each call, or null if the code is known not to exist
+		 */
+		public String getLongUrl() {
+			return origin == null ? null : origin.concat(new String(rest, StandardCharsets.UTF_8));
+		}
+
+		boolean isNegative() {
+			return origin == null;
+		}
+
+		boolean isExpired(long now) {
+			return now - expiresAt >= 0;
+		}
+	}
+
+
+	/**
+	 * LRU of at most capacity entries. Entries live in numbered nodes (parallel arrays, with a doubly linked list
+	 * from most to least recently used through prev/next); the table maps a key to its node by linear probing.
+	 * Free nodes are chained through next.
+	 */
+	private final class Segment {
+
+		private static final int NONE = -1;
+
+		private final int capacity;
+		private final long[] keys;
+		private final Entry[] entries;
+		private final int[] prev;
+		private final int[] next;
+		// node + 1, 0 for an empty slot
+		private final int[] table;
+		private final int mask;
+
+		private int head = NONE;
+		private int tail = NONE;
+		private int free;
+		private int size;
+
+		Segment(int capacity) {
+			this.capacity = capacity;
+			this.keys = new long[capacity];
+			this.entries = new Entry[capacity];
+			this.prev = new int[capacity];
+			this.next = new int[capacity];
+			// at most half full, so probe sequences stay short
+			this.table = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+			this.mask = table.length - 1;
+			for (int node = 0; node < capacity; node++) {
+				next[node] = node + 1 < capacity ? node + 1 : NONE;
+			}
+			this.free = 0;
+		}
+
+		synchronized Entry get(long key, int hash, long now) {
+			int slot = find(key, hash);
+			if (slot < 0) {
+				return null;
+			}
+			int node = table[slot] - 1;
+			Entry entry = entries[node];
+			if (entry.isExpired(now)) {
+				removeSlot(slot);
+				evictions.increment();
+				return null;
+			}
+			moveToFront(node);
+			return entry;
+		}
+
+		synchronized void put(long key, int hash, Entry entry) {
+			int slot = find(key, hash);
+			if (slot >= 0) {
+				int node = table[slot] - 1;
+				entries[node] = entry;
+				moveToFront(node);
+				return;
+			}
+			insert(key, hash, entry);
+		}
+
+		synchronized void putIfAbsent(long key, int hash, Entry entry, long now) {
+			int slot = find(key, hash);
+			if (slot < 0) {
+				insert(key, hash, entry);
+			} else if (entries[table[slot] - 1].isExpired(now)) {
+				int node = table[slot] - 1;
+				entries[node] = entry;
+				moveToFront(node);
+			}
+		}
+
+		synchronized void remove(long key, int hash) {
+			int slot = find(key, hash);
+			if (slot >= 0) {
+				removeSlot(slot);
+			}
+		}
+
+		synchronized void removeNegative(long key, int hash) {
+			int slot = find(key, hash);
+			if (slot >= 0 && entries[table[slot] - 1].isNegative()) {
+				removeSlot(slot);
+			}
+		}
+
+		synchronized int size() {
+			return size;
+		}
+
+		synchronized void forEach(MappingVisitor visitor, long now) {
+			for (int node = tail; node != NONE; node = prev[node]) {
+				Entry entry = entries[node];
+				if (!entry.isNegative() && !entry.expiring && !entry.isExpired(now)) {
+					visitor.visit(keys[node], entry.getLongUrl());
+				}
+			}
+		}
+
+		private int find(long key, int hash) {
+			int slot = hash & mask;
+			int stored;
+			while ((stored = table[slot]) != 0) {
+				if (keys[stored - 1] == key) {
+					return slot;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		private void insert(long key, int hash, Entry entry) {
+			if (size == capacity) {
+				removeSlot(find(keys[tail], (int) hash(keys[tail])));
+				evictions.increment();
+			}
+			int node = free;
+			free = next[node];
+			keys[node] = key;
+			entries[node] = entry;
+			linkFirst(node);
+			size++;
+
+			int slot = hash & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = node + 1;
+		}
+
+		private void removeSlot(int slot) {
+			int node = table[slot] - 1;
+			unlink(node);
+			entries[node] = null;
+			next[node] = free;
+			free = node;
+			size--;
+
+			// backward shift deletion: pull later entries of the probe sequence into the hole so lookups never
+			// stop early at it
+			int hole = slot;
+			int i = (slot + 1) & mask;
+			int stored;
+			while ((stored = table[i]) != 0) {
+				int home = (int) hash(keys[stored - 1]) & mask;
+				if (((i - home) & mask) >= ((i - hole) & mask)) {
+					table[hole] = stored;
+					hole = i;
+				}
+				i = (i + 1) & mask;
+			}
+			table[hole] = 0;
+		}
+
+		private void moveToFront(int node) {
+			if (node != head) {
+				unlink(node);
+				linkFirst(node);
+			}
+		}
+
+		private void linkFirst(int node) {
+			prev[node] = NONE;
+			next[node] = head;
+			if (head != NONE) {
+				prev[head] = node;
+			}
+			head = node;
+			if (tail == NONE) {
+				tail = node;
+			}
+		}
+
+		private void unlink(int node) {
+			if (prev[node] == NONE) {
+				head = next[node];
+			} else {
+				next[prev[node]] = next[node];
+			}
+			if (next[node] == NONE) {
+				tail = prev[node];
+			} else {
+				prev[next[node]] = prev[node];
+			}
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package net.orfdev;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * {@link BloomFilter} over the ids of every stored short url, so {@link UrlShortDatabase} can answer codes that
+ * definitely don't exist (scanners, crawlers, typos) without going to the cache or the database.
+ *
+ * The filter is built from a full scan of the store before the instance reports ready, and every insert through
+ * this node is added to it. It is rebuilt in the background, on its own thread, once the keys added reach the
+ * size it was built for, and every {@code rebuild-interval-millis}. During a rebuild inserts go to both the old
+ * and the new filter, so the new one misses nothing that was inserted after its scan started; the old one is
+ * dropped when the scan is done. Until the first build completes every code is let through.
+ *
+ * A negative answer is final, so inserts made by other nodes are only known here once the {@link UrlChangeLog}
+ * tailer has added them, or, with the change log off, after the next rebuild. That is why the filter is off by
+ * default: turn it on for a single writing node, or with several together with the change log.
+ */
+@Component
+public class ShortUrlFilter implements ApplicationRunner {
+
+	private static final Logger log = LogManager.getLogger();
+
+	@Autowired
+	private UrlStore store;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${urlshort.bloom.enabled:false}")
+	private boolean enabled;
+
+	@Value("${urlshort.bloom.false-positive-rate:0.01}")
+	private double falsePositiveRate;
+
+	@Value("${urlshort.bloom.minimum-size:1000000}")
+	private long minimumSize;
+
+	@Value("${urlshort.bloom.rebuild-interval-millis:600000}")
+	private long rebuildIntervalMillis;
+
+	// null until the first build is done
+	private volatile BloomFilter filter;
+	// the filter being built, also fed by inserts; null outside of rebuilds
+	private volatile BloomFilter building;
+
+	private final LongAdder keys = new LongAdder();
+	private volatile long builtAt;
+	private final AtomicBoolean rebuilding = new AtomicBoolean();
+	private ExecutorService rebuilder;
+
+	private Counter rejected;
+
+
+	@PostConstruct
+	public void init() {
+		rejected = Counter.builder("urlshort.bloom.rejected")
+				.description("Short urls answered as unknown by the bloom filter, without a lookup").register(meterRegistry);
+		Gauge.builder("urlshort.bloom.size", this, f -> {
+			BloomFilter current = f.filter;
+			return current == null ? 0 : current.sizeInBytes();
+		}).baseUnit("bytes").description("Memory taken by the short url bloom filter").register(meterRegistry);
+		rebuilder = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "bloom-rebuild");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public void run(ApplicationArguments args) {
+		if (enabled) {
+			rebuild();
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		rebuilder.shutdownNow();
+	}
+
+
+	/**
+	 * @return false only if the short url id was never stored (as far as this node knows)
+	 */
+	public boolean mightContain(long id) {
+		BloomFilter current = filter;
+		if (current == null || current.mightContain(id)) {
+			return true;
+		}
+		rejected.increment();
+		return false;
+	}
+
+	/**
+	 * Records a stored short url id; call it once the mapping is written.
+	 */
+	public void add(long id) {
+		if (!enabled) {
+			return;
+		}
+		// building is read before filter: whichever way this races with a rebuild swapping them, the id ends up
+		// either in the new filter or in the store before the new filter's scan started
+		BloomFilter next = building;
+		BloomFilter current = filter;
+		if (next != null) {
+			next.put(id);
+		}
+		if (current != null) {
+			current.put(id);
+		}
+		keys.increment();
+	}
+
+	@Scheduled(fixedDelayString = "${urlshort.bloom.check-interval-millis:10000}")
+	public void checkRebuild() {
+		BloomFilter current = filter;
+		if (current == null) {
+			return;
+		}
+		boolean full = keys.sum() >= current.capacity();
+		boolean stale = rebuildIntervalMillis > 0 && System.currentTimeMillis() - builtAt >= rebuildIntervalMillis;
+		if ((full || stale) && rebuilding.compareAndSet(false, true)) {
+			try {
+				rebuilder.execute(() -> {
+					try {
+						rebuild();
+					} catch (RuntimeException ex) {
+						// the current filter stays in place, it is retried on the next check
+						log.error("Could not rebuild the short url bloom filter", ex);
+					} finally {
+						rebuilding.set(false);
+					}
+				});
+			} catch (RejectedExecutionException ex) {
+				rebuilding.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Builds a new filter from a full scan of the store, sized for twice the current number of mappings, and
+	 * swaps it in.
+	 */
+	synchronized void rebuild() {
+		long start = System.currentTimeMillis();
+		final BloomFilter next = BloomFilter.create(Math.max(minimumSize, store.countAll() * 2), falsePositiveRate);
+		building = next;
+		final long[] scanned = new long[1];
+		store.forEachId(id -> {
+			next.put(id);
+			scanned[0]++;
+		});
+		filter = next;
+		building = null;
+		keys.reset();
+		keys.add(scanned[0]);
+		builtAt = System.currentTimeMillis();
+		log.info("Built the short url bloom filter over {} ids for {} keys ({} KB) in {} ms",
+				scanned[0], next.capacity(), next.sizeInBytes() / 1024, builtAt - start);
+	}
+}
@@ -0,0 +1,231 @@
+package net.orfdev;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Admission control for the shorten endpoints (registered on their paths in {@link WebConfig}), so one client
+ * shortening in bulk can't take the JDBC pool away from redirects.
+ *
+ * Each request takes a token from its client's {@link TokenBucket} and then from a global one; without both it is
+ * answered 429 with a Retry-After straight away, before the controller runs. Clients are told apart by remote
+ * address, or by the X-Forwarded-For address the proxy appended (the last one) when running behind a trusted proxy.
+ *
+ * The urls of a bulk shorten are charged on top of that, a chunk at a time, through {@link #acquireBulk}: one token
+ * per url from the client's bucket for bulk urls, which has a rate of its own, and one from the global bucket per
+ * chunk, about what a chunk costs the database next to a single shorten. An upload over the rate is slowed down
+ * rather than refused: the request thread waits for the tokens, which holds back the reading of the body.
+ *
+ * Memory is bounded: a bucket that has refilled completely is the same as a new one, so idle buckets are dropped
+ * by a periodic sweep, and once {@code max-clients} buckets exist new clients share a single overflow bucket until
+ * the next sweep makes room.
+ */
+@Component
+public class ShortenRateLimiter implements HandlerInterceptor {
+
+	private static final Logger log = LogManager.getLogger();
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${urlshort.ratelimit.enabled:true}")
+	private boolean enabled;
+
+	@Value("${urlshort.ratelimit.client-rate:20}")
+	private double clientRate;
+
+	@Value("${urlshort.ratelimit.client-burst:40}")
+	private int clientBurst;
+
+	@Value("${urlshort.ratelimit.bulk-rate:1000}")
+	private double bulkRate;
+
+	@Value("${urlshort.ratelimit.global-rate:1000}")
+	private double globalRate;
+
+	@Value("${urlshort.ratelimit.global-burst:2000}")
+	private int globalBurst;
+
+	@Value("${urlshort.ratelimit.max-clients:100000}")
+	private int maxClients;
+
+	@Value("${urlshort.ratelimit.trust-forwarded-for:false}")
+	private boolean trustForwardedFor;
+
+	private Buckets clients;
+	private Buckets bulkClients;
+	private TokenBucket global;
+
+	private Counter clientRejected;
+	private Counter globalRejected;
+	private Timer bulkWait;
+
+
+	@PostConstruct
+	public void init() {
+		long now = System.nanoTime();
+		clients = new Buckets(clientRate, clientBurst, now);
+		// a whole chunk fits in the burst, so an upload within the rate never waits
+		bulkClients = new Buckets(bulkRate, UtilityCheck.BULK_CHUNK_SIZE, now);
+		global = new TokenBucket(globalRate, globalBurst, now);
+		clientRejected = Counter.builder("urlshort.ratelimit.rejected").tag("scope", "client")
+				.description("Shorten requests refused because the client went over its rate").register(meterRegistry);
+		globalRejected = Counter.builder("urlshort.ratelimit.rejected").tag("scope", "global")
+				.description("Shorten requests refused because all clients together went over the global rate").register(meterRegistry);
+		bulkWait = Timer.builder("urlshort.ratelimit.bulk.wait")
+				.description("Time bulk shortens were held back to stay within their rates").register(meterRegistry);
+		Gauge.builder("urlshort.ratelimit.clients", this, limiter -> limiter.clients.size() + limiter.bulkClients.size())
+				.description("Clients with a rate limiting bucket currently tracked").register(meterRegistry);
+	}
+
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		if (!enabled) {
+			return true;
+		}
+		long now = System.nanoTime();
+		long wait = clients.bucketFor(clientKey(request), now).tryAcquire(now);
+		Counter rejected = clientRejected;
+		if (wait == 0) {
+			// a client refused by the global bucket has still used up its own token, which errs on the strict side
+			wait = global.tryAcquire(now);
+			rejected = globalRejected;
+		}
+		if (wait == 0) {
+			return true;
+		}
+		rejected.increment();
+		response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+		response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + 999_999_999))));
+		response.setContentLength(0);
+		return false;
+	}
+
+	/**
+	 * Waits until the client of the request may shorten a chunk of urls of a bulk upload, taking their tokens.
+	 * @return false if the thread was interrupted while waiting, with its interrupt flag set again
+	 */
+	public boolean acquireBulk(HttpServletRequest request, int urls) {
+		if (!enabled) {
+			return true;
+		}
+		long start = System.nanoTime();
+		try {
+			waitFor(bulkClients.bucketFor(clientKey(request), start), urls);
+			waitFor(global, 1);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		long waited = System.nanoTime() - start;
+		if (waited > TimeUnit.MILLISECONDS.toNanos(1)) {
+			bulkWait.record(waited, TimeUnit.NANOSECONDS);
+		}
+		return true;
+	}
+
+	// each refusal says how long until the bucket takes tokens again, which bounds every sleep
+	private static void waitFor(TokenBucket bucket, int tokens) throws InterruptedException {
+		long wait;
+		while ((wait = bucket.tryAcquire(System.nanoTime(), tokens)) > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+
+	TokenBucket bucketFor(String client, long now) {
+		return clients.bucketFor(client, now);
+	}
+
+	private String clientKey(HttpServletRequest request) {
+		if (trustForwardedFor) {
+			String forwarded = request.getHeader("X-Forwarded-For");
+			if (forwarded != null && !forwarded.isEmpty()) {
+				// the earlier entries come from the client, which can write anything there
+				String last = forwarded.substring(forwarded.lastIndexOf(',') + 1).trim();
+				if (!last.isEmpty()) {
+					return last;
+				}
+			}
+		}
+		return request.getRemoteAddr();
+	}
+
+	/**
+	 * Drops the buckets that have refilled completely: a client coming back gets a new, equally full, one.
+	 */
+	@Scheduled(fixedDelayString = "${urlshort.ratelimit.sweep-interval-millis:10000}")
+	public void sweep() {
+		long now = System.nanoTime();
+		int dropped = clients.sweep(now) + bulkClients.sweep(now);
+		log.debug("Rate limiter sweep dropped {} idle client buckets", dropped);
+	}
+
+	int getTrackedClients() {
+		return clients.size();
+	}
+
+
+	/**
+	 * A bucket per client, up to max-clients of them, and one overflow bucket shared by the clients past that.
+	 */
+	private class Buckets {
+
+		private final double rate;
+		private final int burst;
+		private final ConcurrentHashMap<String, TokenBucket> byClient = new ConcurrentHashMap<>();
+		private final TokenBucket overflow;
+
+		Buckets(double rate, int burst, long now) {
+			this.rate = rate;
+			this.burst = burst;
+			this.overflow = new TokenBucket(rate, burst, now);
+		}
+
+		TokenBucket bucketFor(String client, long now) {
+			TokenBucket bucket = byClient.get(client);
+			if (bucket != null) {
+				return bucket;
+			}
+			if (byClient.size() >= maxClients) {
+				return overflow;
+			}
+			return byClient.computeIfAbsent(client, c -> new TokenBucket(rate, burst, now));
+		}
+
+		int sweep(long now) {
+			int before = byClient.size();
+			// a request racing with the removal may take its token from the dropped bucket, and get it for free
+			for (Iterator<TokenBucket> it = byClient.values().iterator(); it.hasNext();) {
+				if (it.next().isIdle(now)) {
+					it.remove();
+				}
+			}
+			return before - byClient.size();
+		}
+
+		int size() {
+			return byClient.size();
+		}
+	}
+}
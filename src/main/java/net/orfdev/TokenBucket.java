@@ -0,0 +1,64 @@
+package net.orfdev;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, in its GCRA form: instead of a token count and a refill time the bucket keeps a single
+ * "theoretical arrival time", the moment it would be full again. Taking a token moves it one emission interval
+ * forward, and is refused if that would put it more than the burst ahead of now. One AtomicLong and one CAS per
+ * request, and an idle bucket needs no background refill.
+ */
+public final class TokenBucket {
+
+	private final long intervalNanos;
+	private final long burstNanos;
+
+	// theoretical arrival time, System.nanoTime() based
+	private final AtomicLong tat;
+
+	/**
+	 * @param ratePerSecond tokens added per second
+	 * @param burst tokens the bucket holds when full
+	 */
+	public TokenBucket(double ratePerSecond, int burst, long now) {
+		if (ratePerSecond <= 0 || burst < 1) {
+			throw new IllegalArgumentException("Bad token bucket: " + ratePerSecond + "/s, burst " + burst);
+		}
+		this.intervalNanos = Math.max(1, (long) (1e9 / ratePerSecond));
+		this.burstNanos = intervalNanos * burst;
+		this.tat = new AtomicLong(now);
+	}
+
+	/**
+	 * @return 0 if a token was taken, else how many nanoseconds until one is available
+	 */
+	public long tryAcquire(long now) {
+		return tryAcquire(now, 1);
+	}
+
+	/**
+	 * Takes several tokens at once. They are granted whenever one token is available, so there may be more of them
+	 * than the burst: the bucket then goes into debt and refuses everything until its rate has paid it back.
+	 * @return 0 if the tokens were taken, else how many nanoseconds until one is available
+	 */
+	public long tryAcquire(long now, int tokens) {
+		while (true) {
+			long current = tat.get();
+			long start = Math.max(current, now);
+			long ahead = start + intervalNanos - now;
+			if (ahead > burstNanos) {
+				return ahead - burstNanos;
+			}
+			if (tat.compareAndSet(current, start + intervalNanos * tokens)) {
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the bucket is full, ie. it holds no state worth keeping
+	 */
+	public boolean isIdle(long now) {
+		return tat.get() - now <= 0;
+	}
+}
@@ -0,0 +1,248 @@
+package net.orfdev;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Write-ahead stream of url mapping changes, so that several nodes each keeping state in memory (the
+ * {@link ShortUrlCache}, the {@link ShortUrlFilter}) see the writes made through the others without checking the
+ * database on every request.
+ *
+ * {@link UrlShortDatabase} records every insert and delete in the url_changes table, in the same transaction as the
+ * change itself, under an increasing sequence. Every node (the writer included) tails the table in batches of
+ * {@code batch-size} every {@code poll-interval-millis}: an insert drops a cached "not found" for the code and adds
+ * it to the bloom filter, a delete drops the cached mapping. Applying a change twice does no harm.
+ *
+ * Sequence values are handed out when a row is inserted, not when it commits, so a change can become visible after
+ * one with a higher sequence. The tailer only moves its position up to the first missing sequence; changes past it
+ * are applied, then read again on the next polls until the missing one shows up or {@code gap-timeout-millis} has
+ * passed, after which it is taken to be a rolled back transaction and skipped.
+ *
+ * A node starts tailing from the end of the table, since its cache starts empty and its filter is built from a
+ * scan. Changes older than {@code retention-millis} are trimmed.
+ */
+@Component
+public class UrlChangeLog {
+
+	private static final Logger log = LogManager.getLogger();
+
+	public static final char INSERT = 'I';
+	public static final char DELETE = 'D';
+
+	private static final int TRIM_BATCH_SIZE = 10000;
+
+	@Autowired
+	private JdbcTemplate jdbctemplate;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private ShortUrlCache cache;
+
+	@Autowired
+	private ShortUrlFilter filter;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${urlshort.changes.enabled:false}")
+	private boolean enabled;
+
+	@Value("${urlshort.changes.batch-size:1000}")
+	private int batchSize;
+
+	@Value("${urlshort.changes.gap-timeout-millis:10000}")
+	private long gapTimeoutMillis;
+
+	@Value("${urlshort.changes.retention-millis:3600000}")
+	private long retentionMillis;
+
+	private TransactionTemplate transactionTemplate;
+
+	// every change up to this sequence has been applied, or given up on
+	private volatile long position;
+	// when the change after gapAfter was first found missing, 0 if none is
+	private long gapSince;
+	private long gapAfter;
+	// changes past a gap are read again until it closes, they are only applied the first time
+	private final TreeSet<Long> appliedPastGap = new TreeSet<>();
+
+	private Counter applied;
+	private Counter skipped;
+	private Timer lag;
+
+
+	@PostConstruct
+	public void init() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		applied = Counter.builder("urlshort.changes.applied")
+				.description("Url mapping changes read from the change log and applied to this node's state").register(meterRegistry);
+		skipped = Counter.builder("urlshort.changes.skipped")
+				.description("Change log sequences never seen within the gap timeout, taken as rolled back").register(meterRegistry);
+		lag = Timer.builder("urlshort.changes.lag")
+				.description("Time between a change being logged and this node applying it").register(meterRegistry);
+		if (enabled) {
+			jdbctemplate.execute("CREATE TABLE If Not Exists url_changes (seq BIGINT GENERATED BY DEFAULT AS IDENTITY Primary Key, "
+					+ "id BIGINT NOT NULL, op CHAR(1) NOT NULL, changed_at BIGINT NOT NULL)");
+			position = jdbctemplate.queryForObject("SELECT COALESCE(MAX(seq), 0) FROM url_changes", Long.class);
+			log.info("Tailing url changes from sequence {}", position);
+		}
+	}
+
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Runs the write in a transaction when changes are logged, so the {@link #record} calls it makes commit or roll
+	 * back with it; otherwise just runs it.
+	 */
+	public <T> T inTransaction(Supplier<T> write) {
+		if (!enabled) {
+			return write.get();
+		}
+		return transactionTemplate.execute(status -> write.get());
+	}
+
+	/**
+	 * Logs the same change to many short urls with one JDBC batch; call it from within {@link #inTransaction}.
+	 */
+	public void record(final char op, Collection<Long> ids) {
+		if (!enabled || ids.isEmpty()) {
+			return;
+		}
+		final List<Long> rows = new ArrayList<>(ids);
+		final long now = System.currentTimeMillis();
+		jdbctemplate.batchUpdate("INSERT INTO url_changes (id, op, changed_at) Values (?,?,?)", new BatchPreparedStatementSetter() {
+			@Override
+			public void setValues(PreparedStatement ps, int i) throws SQLException {
+				ps.setLong(1, rows.get(i));
+				ps.setString(2, String.valueOf(op));
+				ps.setLong(3, now);
+			}
+
+			@Override
+			public int getBatchSize() {
+				return rows.size();
+			}
+		});
+	}
+
+
+	@Scheduled(fixedDelayString = "${urlshort.changes.poll-interval-millis:500}")
+	public synchronized void poll() {
+		if (!enabled) {
+			return;
+		}
+		try {
+			long before;
+			do {
+				before = position;
+			} while (applyBatch() == batchSize && position > before);
+		} catch (DataAccessException ex) {
+			log.warn("Could not read the url change log, retrying on the next poll", ex);
+		}
+	}
+
+	/**
+	 * Applies the next batch of changes after the current position, and moves the position forward over the ones
+	 * that follow on from it without a gap.
+	 * @return how many changes were read
+	 */
+	private int applyBatch() {
+		List<long[]> changes = jdbctemplate.query("SELECT seq, id, op, changed_at FROM url_changes WHERE seq > ? ORDER BY seq LIMIT " + batchSize,
+				(rs, rowNum) -> new long[] {rs.getLong(1), rs.getLong(2), rs.getString(3).charAt(0), rs.getLong(4)}, position);
+		long now = System.currentTimeMillis();
+		long next = position;
+		boolean contiguous = true;
+		for (long[] change : changes) {
+			long seq = change[0];
+			if (contiguous && seq != next + 1) {
+				if (gapSince == 0 || gapAfter != next) {
+					gapSince = now;
+					gapAfter = next;
+				}
+				if (now - gapSince >= gapTimeoutMillis) {
+					log.warn("Url changes {} to {} never showed up, skipping them", next + 1, seq - 1);
+					skipped.increment(seq - next - 1);
+					gapSince = 0;
+				} else {
+					contiguous = false;
+				}
+			}
+			if (contiguous) {
+				next = seq;
+			}
+			if (contiguous ? !appliedPastGap.remove(seq) : appliedPastGap.add(seq)) {
+				apply(change[1], (char) change[2]);
+				lag.record(Math.max(0, now - change[3]), TimeUnit.MILLISECONDS);
+			}
+		}
+		position = next;
+		appliedPastGap.headSet(next, true).clear();
+		return changes.size();
+	}
+
+	private void apply(long id, char op) {
+		if (op == INSERT) {
+			filter.add(id);
+			cache.invalidateNegative(id);
+		} else if (op == DELETE) {
+			cache.invalidate(id);
+		}
+		applied.increment();
+	}
+
+	/**
+	 * Deletes changes older than the retention, oldest first, a batch at a time by primary key.
+	 */
+	@Scheduled(fixedDelayString = "${urlshort.changes.trim-interval-millis:60000}")
+	public void trim() {
+		if (!enabled) {
+			return;
+		}
+		try {
+			long cutoff = System.currentTimeMillis() - retentionMillis;
+			int deleted;
+			do {
+				// sequences and times go up together (give or take clock skew between nodes), so the old changes are
+				// found among the first ones without an index on changed_at
+				Long last = jdbctemplate.queryForObject("SELECT MAX(seq) FROM (SELECT seq, changed_at FROM url_changes ORDER BY seq LIMIT "
+						+ TRIM_BATCH_SIZE + ") oldest WHERE changed_at < ?", Long.class, cutoff);
+				deleted = last == null ? 0 : jdbctemplate.update("DELETE FROM url_changes WHERE seq <= ?", last);
+			} while (deleted == TRIM_BATCH_SIZE);
+		} catch (DataAccessException ex) {
+			log.warn("Could not trim the url change log, retrying on the next run", ex);
+		}
+	}
+
+	long getPosition() {
+		return position;
+	}
+}
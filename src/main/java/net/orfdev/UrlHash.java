@@ -0,0 +1,31 @@
+package net.orfdev;
+
+/**
+ * Fixed width 64 bit digest of a long url, stored in an indexed column so that dedupe lookups don't have to
+ * compare (or index) the full url text.
+ *
+ * FNV-1a over the UTF-16 chars followed by a murmur3 finaliser to spread the bits; it isn't cryptographic,
+ * collisions are expected to be rare and are resolved by comparing the full url.
+ */
+public final class UrlHash {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private UrlHash() {
+    }
+
+    public static long hash64(CharSequence url) {
+        long h = FNV_OFFSET_BASIS;
+        for (int i = 0, n = url.length(); i < n; i++) {
+            h ^= url.charAt(i);
+            h *= FNV_PRIME;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
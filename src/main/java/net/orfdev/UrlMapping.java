@@ -0,0 +1,74 @@
+package net.orfdev;
+
+/**
+ * A short url, held as the number its Base62 code encodes, and the long url it redirects to, optionally until
+ * an expiry time.
+ *
+ * A mapping made from a url the web layer has just validated carries the {@link ParsedUrl} along, so storage
+ * and cache split it without parsing it again.
+ */
+public class UrlMapping {
+
+	/** {@link #getExpiresAt()} of a mapping that never expires */
+	public static final long NEVER = 0;
+
+	private final long id;
+	private final String longUrl;
+	private final long expiresAt;
+	// parsed on first use when the mapping wasn't made from a ParsedUrl; parsing twice in a race does no harm
+	private ParsedUrl parsedUrl;
+
+	public UrlMapping(long id, String longUrl) {
+		this(id, longUrl, NEVER);
+	}
+
+	public UrlMapping(long id, String longUrl, long expiresAt) {
+		this.id = id;
+		this.longUrl = longUrl;
+		this.expiresAt = expiresAt;
+	}
+
+	public UrlMapping(long id, ParsedUrl url, long expiresAt) {
+		this(id, url.getUrl(), expiresAt);
+		this.parsedUrl = url;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getShortUrl() {
+		return Base62.encode(id);
+	}
+
+	public String getLongUrl() {
+		return longUrl;
+	}
+
+	/**
+	 * @return the long url split into its parts, or null if there is no long url or it doesn't pass
+	 * {@link UrlValidator} (stored before its rules, say)
+	 */
+	public ParsedUrl getParsedUrl() {
+		if (parsedUrl == null && longUrl != null) {
+			parsedUrl = UrlValidator.parseUrl(longUrl);
+		}
+		return parsedUrl;
+	}
+
+	/**
+	 * @return when the mapping stops redirecting, in epoch millis, or {@link #NEVER}
+	 */
+	public long getExpiresAt() {
+		return expiresAt;
+	}
+
+	public boolean isExpired(long nowMillis) {
+		return expiresAt != NEVER && expiresAt <= nowMillis;
+	}
+
+	@Override
+	public String toString() {
+		return getShortUrl() + " -> " + longUrl;
+	}
+}
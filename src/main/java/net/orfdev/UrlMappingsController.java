@@ -1,20 +1,30 @@
 package net.orfdev;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Random;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.IntStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -22,6 +32,11 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 
 @Controller
 public class UrlMappingsController {
@@ -31,6 +46,76 @@ public class UrlMappingsController {
 	@Autowired
 	private UrlShortDatabase shortUrlDb;
 
+	@Autowired
+	private IdAllocator idAllocator;
+
+	@Autowired
+	private InsertBatcher insertBatcher;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private UrlValidator validator;
+
+	@Autowired
+	private ClickCounter clickCounter;
+
+	@Autowired
+	private RequestExecutor requestExecutor;
+
+	@Autowired
+	private ShortenRateLimiter rateLimiter;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${urlshort.redirect.status:302}")
+	private int redirectStatus;
+
+	@Value("${urlshort.redirect.cache-max-age-seconds:0}")
+	private long redirectCacheMaxAge;
+
+	@Value("${urlshort.expiry.max-ttl-seconds:31536000}")
+	private long maxTtlSeconds;
+
+	@Value("${urlshort.batch.write-timeout-millis:5000}")
+	private long writeTimeoutMillis;
+
+	private String redirectCacheControl;
+
+	// built once so that recording on the request path is just a nanoTime pair
+	private Timer redirectTimer;
+	private Timer shortenTimer;
+	private Timer validationTimer;
+	private Counter validationRejected;
+	private Counter redirectNotFound;
+
+
+	@PostConstruct
+	public void init() {
+		if (redirectStatus != 301 && redirectStatus != 302 && redirectStatus != 307) {
+			throw new IllegalArgumentException("urlshort.redirect.status must be 301, 302 or 307 but was " + redirectStatus);
+		}
+		redirectCacheControl = redirectCacheMaxAge > 0 ? "public, max-age=" + redirectCacheMaxAge : "no-cache";
+
+		redirectTimer = histogramTimer("urlshort.redirect", "Time taken to resolve a short url and write the redirect");
+		shortenTimer = histogramTimer("urlshort.shorten", "Time taken to allocate and persist a new short url");
+		validationTimer = histogramTimer("urlshort.validation", "Time taken to validate a url to shorten");
+		validationRejected = Counter.builder("urlshort.validation.rejected")
+				.description("Urls refused for shortening because they are not valid").register(meterRegistry);
+		redirectNotFound = Counter.builder("urlshort.redirect.not_found")
+				.description("Redirects asked for a short url that doesn't exist").register(meterRegistry);
+	}
+
+	private Timer histogramTimer(String name, String description) {
+		return Timer.builder(name).description(description)
+				.publishPercentileHistogram()
+				.minimumExpectedValue(Duration.ofNanos(1000))
+				.maximumExpectedValue(Duration.ofSeconds(10))
+				.register(meterRegistry);
+	}
+
 	// --------------------------------------------------------------------------------------------------------------------- //
 	// The first set of methods are just here to illustrate how a Spring MVC application can work. The @RequestMapping 
 	// annotation is what tells Spring that when a certain URL is requested in a browser it should be mapped onto a specific
@@ -39,9 +124,6 @@ public class UrlMappingsController {
 	// You should NOT need to change these methods.
 	// --------------------------------------------------------------------------------------------------------------------- //
 
-	private static int INDEX = 0;
-
-
 	@RequestMapping("/") // defines the URL to access this method - so this will be http://localhost:8080/
 	public String hello(
 			@RequestParam(defaultValue="World") String who,  // querystring or form parameter with name "who"
@@ -83,12 +165,16 @@ public class UrlMappingsController {
 	public String shortenUrlAndReturnHtml(@RequestParam(value="url", required=true) String longUrl, Model model) {
 
 		//1. Verify that a URL is passed to the /shorten method
-		if(!urlValidator(longUrl)){
+		ParsedUrl parsed = urlValidator(longUrl);
+		if(parsed == null){
 			log.debug("The URL [{}]  isn't valid", longUrl);
 			throw new RuntimeException();
 		}
 
-		String shortUrl = shortenUrl(longUrl);
+		String shortUrl = shortenUrl(parsed, UrlMapping.NEVER);
+		if (shortUrl == null) {
+			throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Timed out writing the short url");
+		}
 		model.addAttribute("originalUrl", longUrl);
 		model.addAttribute("shortUrl", "http://localhost:8080/" + shortUrl);
 		
@@ -97,123 +183,253 @@ public class UrlMappingsController {
 
 	// --------------------------------------------------------------------------------------------------------------------- //
 	// Shorten a URL and then return a JSON payload
+	// Runs through the RequestExecutor, so with the async profile it doesn't hold a Tomcat thread (see mapUrl below).
+	// With a ttl (in seconds, up to urlshort.expiry.max-ttl-seconds) the short URL stops redirecting once it has passed.
+	// Expiring links are always new ones: handing out an existing link would cut it short or keep it alive for someone
+	// else. A storage that can't expire links (urlshort.storage=mapped) answers a ttl with 400.
 	// --------------------------------------------------------------------------------------------------------------------- //
 	@RequestMapping("/json/shorten")
-	public @ResponseBody Map<String, String> shortenUrlAndReturnJson(@RequestParam(value="url", required=true) String longUrl, Model model) {
+	public void shortenUrlAndReturnJson(@RequestParam(value="url", required=true) String longUrl,
+			@RequestParam(value="ttl", required=false) Long ttlSeconds,
+			HttpServletRequest request, HttpServletResponse response) throws Exception {
+		requestExecutor.execute(request, response, res -> writeShortenedJson(longUrl, ttlSeconds, res));
+	}
+
+	private void writeShortenedJson(String longUrl, Long ttlSeconds, HttpServletResponse response) throws IOException {
 
 		//1. Verify that a URL is passed to the /shorten method
-		if(!urlValidator(longUrl)){
+		ParsedUrl parsed = urlValidator(longUrl);
+		if(parsed == null){
 			log.debug("The URL [{}]  isn't valid", longUrl);
 			throw new RuntimeException();
 		}
+		if (ttlSeconds != null && (ttlSeconds <= 0 || ttlSeconds > maxTtlSeconds)) {
+			log.debug("The ttl [{}] for URL [{}] isn't valid", ttlSeconds, longUrl);
+			throw new RuntimeException();
+		}
+		if (ttlSeconds != null && !shortUrlDb.supportsExpiry()) {
+			// the client's mistake as far as it can tell, not a server error
+			log.debug("Refusing ttl [{}] for URL [{}], the storage can't expire links", ttlSeconds, longUrl);
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			response.setContentLength(0);
+			return;
+		}
 
-		String shortUrlPresent = manageDuplicateUrl(longUrl);
-		String shortUrl = (shortUrlPresent==null || shortUrlPresent.isEmpty())? shortenUrl(longUrl) :shortUrlPresent;
+		String shortUrl;
+		long expiresAt = UrlMapping.NEVER;
+		if (ttlSeconds == null) {
+			long idPresent = manageDuplicateUrl(longUrl);
+			shortUrl = idPresent < 0 ? shortenUrl(parsed, UrlMapping.NEVER) : Base62.encode(idPresent);
+		} else {
+			expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds);
+			shortUrl = shortenUrl(parsed, expiresAt);
+		}
+		if (shortUrl == null) {
+			response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+			response.setContentLength(0);
+			return;
+		}
 		
 		Map<String, String> payload = new HashMap<>();
 		payload.put("originalUrl", longUrl);
 		payload.put("shortUrl", "http://localhost:8080/" + shortUrl);
+		if (expiresAt != UrlMapping.NEVER) {
+			payload.put("expiresAt", Instant.ofEpochMilli(expiresAt).toString());
+		}
 		
-		return payload;
+		response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+		objectMapper.writeValue(response.getOutputStream(), payload);
 	}
 
 	// --------------------------------------------------------------------------------------------------------------------- //
-	//
-	//	3. Handle duplicate random numbers
-	//
-	//	Since the short URL is generated by the Base62 encoding of a random number,
-	//	it is possible that the code may try to assign the same short URL to two different URLs.
-	//	If this happens, the code will currently throw a database exception since the field is the primary key.
-	//	Instead, short_url makes the code catches the exception and retries until it 'successful'.
+	// Shorten many URLs in one request. The body is either newline-delimited URLs (text/plain) or a JSON array of strings
+	// (application/json). URLs are read and processed in fixed size chunks: each chunk is validated, deduped against the
+	// DB with a single IN lookup, new mappings are written with one JDBC batch, and the results for the chunk are streamed
+	// back as newline-delimited JSON before the next chunk is read, so memory use doesn't depend on the size of the upload.
+	// Each chunk is charged to the client's bulk rate before it is shortened; an upload over it is slowed down, not refused.
 	// --------------------------------------------------------------------------------------------------------------------- //
-	private String shortenUrl(String longUrl) {
-		boolean successful = false;
-		String shortUrl = null;
-		INDEX = 1;
-		while((!successful) || (INDEX != UtilityCheck.NUM_MAX_TIMES)){
-			shortUrl = getShortUrlEncode();
-			try {
-				shortUrlDb.insert(shortUrl, longUrl);
-				successful = true;
-				break;
-			} catch (Exception ex) {
-				successful = false;
-				log.info("Operation failed, shortUrl already exist: {}", shortUrl);
-				if (ex.getCause() instanceof SQLIntegrityConstraintViolationException) {
-					if (!successful) {
-						if (INDEX >= UtilityCheck.NUM_MAX_TIMES) {
-							String errorMessage = "Caught Exception - Operation failed, shortUrl already exist, we tried for : " + INDEX;
-							log.fatal(errorMessage, ex);
-							// wrap the exception, e.g. throw new RuntimeException(e);
-							throw new RuntimeException(ex);
-						} else {
-							String errorMessage = "Operation failed, retries remaining: {} ";
-							log.info(errorMessage, (UtilityCheck.NUM_MAX_TIMES - (INDEX++)));
-							continue;
-						}
-					} else {
-						throw ex;
-					}
-				} else {
-					String errorMessage = "Error while persisting new claims we tried for: " + INDEX;
-					log.fatal(errorMessage , ex);
-					throw new RuntimeException(ex);
+	@RequestMapping(value = "/json/shorten/bulk", method = RequestMethod.POST)
+	public void shortenUrlsInBulk(HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+		UrlSource source = openUrlSource(request);
+
+		response.setContentType(UtilityCheck.APPLICATION_NDJSON_VALUE);
+		response.setCharacterEncoding("UTF-8");
+		JsonGenerator out = objectMapper.getFactory().createGenerator(response.getOutputStream());
+
+		List<String> chunk = new ArrayList<>(UtilityCheck.BULK_CHUNK_SIZE);
+		String url;
+		do {
+			url = source.next();
+			if (url != null) {
+				chunk.add(url);
+			}
+			if (chunk.size() == UtilityCheck.BULK_CHUNK_SIZE || (url == null && !chunk.isEmpty())) {
+				if (!rateLimiter.acquireBulk(request, chunk.size())) {
+					log.debug("Bulk shorten interrupted waiting for its rate, {} urls left unanswered", chunk.size());
+					break;
 				}
+				shortenChunk(chunk, out);
+				out.flush();
+				chunk.clear();
+			}
+		} while (url != null);
+
+		out.close();
+	}
+
+	private void shortenChunk(List<String> chunk, JsonGenerator out) throws IOException {
+		// keep the order of first appearance so results come back in the order they were sent
+		Map<String, Long> ids = new LinkedHashMap<>();
+		Map<String, ParsedUrl> parsedUrls = new HashMap<>();
+		for (String longUrl : chunk) {
+			ParsedUrl parsed = urlValidator(longUrl);
+			if (parsed != null) {
+				ids.put(longUrl, null);
+				parsedUrls.put(longUrl, parsed);
+			}
+		}
+
+		ids.putAll(shortUrlDb.lookupByLongUrls(ids.keySet()));
 
+		List<UrlMapping> newMappings = new ArrayList<>();
+		for (Map.Entry<String, Long> entry : ids.entrySet()) {
+			if (entry.getValue() == null) {
+				long id = idAllocator.nextId();
+				entry.setValue(id);
+				newMappings.add(new UrlMapping(id, parsedUrls.get(entry.getKey()), UrlMapping.NEVER));
 			}
 		}
+		if (!newMappings.isEmpty()) {
+			shortUrlDb.insertBatch(newMappings);
+		}
 
-		return shortUrl;
+		for (String longUrl : chunk) {
+			out.writeStartObject();
+			out.writeStringField("originalUrl", longUrl);
+			Long id = ids.get(longUrl);
+			if (id == null) {
+				out.writeStringField("error", "invalid url");
+			} else {
+				out.writeStringField("shortUrl", "http://localhost:8080/" + Base62.encode(id));
+			}
+			out.writeEndObject();
+			out.writeRaw('\n');
+		}
 	}
 
-	// --------------------------------------------------------------------------------------------------------------------- //
-	// 3. Handle duplicate random numbersBecause
-	// the short URL is generated by Base62 encoding a random number, it’s possible that the code
-	// can try and assign the same short URL to two different URLs.
-	// If this happens the code will currently throw a database exception due to the  field being the primary key. Instead,
-	// short_urlmake the code catch the Exception and retry until it is successful.
-	// --------------------------------------------------------------------------------------------------------------------- //
-	/*
-		private String shortenUrl(String longUrl) {
-			boolean successful = false;
-			String shortUrl = null;
-			 do {
-				shortUrl = getShortUrlEncode();
-				try {
-					shortUrlDb.insert(shortUrl, longUrl);
-					successful = true;
-					break;
-				} catch (Exception ex) {
-					successful = false;
-					if (!successful) {
-							log.info("Operation failed, shortUrl already exist: {}", shortUrl);
-							shortenUrl(longUrl);
-					} else {
-						throw ex;
+	private UrlSource openUrlSource(HttpServletRequest request) throws IOException {
+		String contentType = request.getContentType();
+		if (contentType != null && contentType.startsWith(MediaType.APPLICATION_JSON_VALUE)) {
+			final JsonParser parser = objectMapper.getFactory().createParser(request.getInputStream());
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new IllegalArgumentException("Expected a JSON array of URLs");
+			}
+			return () -> {
+				JsonToken token;
+				while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+					if (token == JsonToken.VALUE_STRING) {
+						return parser.getText().trim();
 					}
+					parser.skipChildren();
 				}
-			}	while(!successful);
+				return null;
+			};
+		}
+
+		final BufferedReader reader = request.getReader();
+		return () -> {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (!line.isEmpty()) {
+					return line;
+				}
+			}
+			return null;
+		};
+	}
 
-			return shortUrl;
+	private interface UrlSource {
+		/** @return the next URL of the upload, or null once it is exhausted */
+		String next() throws IOException;
+	}
+
+	// --------------------------------------------------------------------------------------------------------------------- //
+	//
+	//	3. Handle duplicate random numbers
+	//
+	//	Short URLs used to be the Base62 encoding of a random number, retried on primary key violations. They now come
+	//	from the IdAllocator, which never hands out the same number twice, so shortening is a single INSERT with no
+	//	retry loop and no shared mutable state between request threads.
+	//	The INSERT goes through the InsertBatcher so that concurrent shortens share a JDBC batch; we wait for the batch to
+	//	commit before returning so the short URL is never handed out before it is durable. We wait at most
+	//	urlshort.batch.write-timeout-millis and return null past that, for the caller to answer 503.
+	// --------------------------------------------------------------------------------------------------------------------- //
+	private String shortenUrl(ParsedUrl longUrl, long expiresAt) {
+		long start = System.nanoTime();
+		long id = idAllocator.nextId();
+		try {
+			insertBatcher.submit(new UrlMapping(id, longUrl, expiresAt)).get(writeTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException ex) {
+			// the row may still be written later, the id is simply never handed out
+			log.error("Short url {} not written within {} ms", id, writeTimeoutMillis);
+			return null;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		} catch (ExecutionException ex) {
+			log.fatal("Error while persisting short url {}", id, ex.getCause());
+			throw new RuntimeException(ex.getCause());
+		} finally {
+			shortenTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
 		}
-	*/
+		return Base62.encode(id);
+	}
 
+	// --------------------------------------------------------------------------------------------------------------------- //
+	// Redirects are almost all of our traffic, so rather than returning "redirect:" and going through view resolution we
+	// write the status and Location header straight onto the response. The status (301/302/307) and Cache-Control max-age
+	// are configurable so browsers and CDNs can absorb repeat hits. Unknown codes get a plain 404.
+	// The code is decoded to its number once, here; everything below keys on the number. Anything that isn't a code we
+	// could have generated (bad characters, leading zeros, too long) is a 404 without touching the cache or the DB.
+	// With the async profile the lookup runs on the RequestExecutor instead of the Tomcat thread, which bounds how many
+	// lookups wait on the DB pool at once and answers 503 when too many are queued.
+	// --------------------------------------------------------------------------------------------------------------------- //
 	@RequestMapping("/{shortUrl}")
-	public String mapUrl(@PathVariable(value="shortUrl") String shortUrl, Model model) {
+	public void mapUrl(@PathVariable(value="shortUrl") String shortUrl, HttpServletRequest request, HttpServletResponse response) throws Exception {
+		requestExecutor.execute(request, response, res -> redirect(shortUrl, res));
+	}
+
+	private void redirect(String shortUrl, HttpServletResponse response) {
+		long start = System.nanoTime();
 		
-		String longUrl = shortUrlDb.lookupByShortUrl(shortUrl);
+		long id = Base62.tryDecodeCanonical(shortUrl);
+		String longUrl = id < 0 ? null : shortUrlDb.lookupByShortUrl(id);
 		
 		if(longUrl == null){
-			log.debug("Short url code [{}] not found in DB so returning no content", shortUrl);
-			longUrl = "";
+			log.debug("Short url code [{}] not found in DB so returning not found", shortUrl);
+			redirectNotFound.increment();
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			response.setHeader(HttpHeaders.CACHE_CONTROL, "no-store");
+			response.setContentLength(0);
+		} else {
+			clickCounter.record(id);
+			response.setStatus(redirectStatus);
+			response.setHeader(HttpHeaders.LOCATION, longUrl);
+			response.setHeader(HttpHeaders.CACHE_CONTROL, redirectCacheControl);
+			response.setContentLength(0);
 		}
-		
-		return "redirect:" + longUrl;
+		redirectTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
 	}
 
 	// --------------------------------------------------------------------------------------------------------------------- //
 	//Assuming that a json object must return, I create an object inside controller this invokes a method internal DAO class,
 	// that returns int value , encapsulated into json string to return
+	// The click count comes from the ClickCounter's in-memory totals, it doesn't add a count query per request.
+	// The record count goes through the same cached lookup as a redirect instead of a COUNT query; service wide
+	// health and figures are on /actuator/health and /actuator/urlstats, refreshed in the background.
 	// --------------------------------------------------------------------------------------------------------------------- //
 	@RequestMapping(
 			value = "/{shortUrl}/health",
@@ -222,84 +438,40 @@ public class UrlMappingsController {
 	)
 	@ResponseBody
 	public ResponseEntity<?> healthCheckManagementURL(@PathVariable(value="shortUrl") String shortUrl) {
-		log.info("healthCheckManagementURL :  request health check");
+		log.debug("healthCheckManagementURL :  request health check");
 		final HttpHeaders httpHeaders = new HttpHeaders();
 		httpHeaders.setContentType(MediaType.APPLICATION_JSON);
 
-		String response = "";
+		long id = Base62.tryDecodeCanonical(shortUrl);
+		boolean exists = id >= 0 && shortUrlDb.lookupByShortUrl(id) != null;
 
-		try {
-			response =  "{\"recordCount\":" + shortUrlDb.getJsonRecordCount(shortUrl)+"}";
-		} catch (JsonProcessingException e) {
-			throw new RuntimeException(e);
-		}
+		Map<String, Object> response = new LinkedHashMap<>();
+		response.put("recordCount", exists ? 1 : 0);
+		response.put("clickCount", exists ? clickCounter.getClicks(id) : 0);
 		return new ResponseEntity<>(response, httpHeaders, HttpStatus.OK);
 	}
 
-	// --------------------------------------------------------------------------------------------------------------------- //
-	// URL regex that starts with HTTP or HTTPS
-	// The HTTP and HTTPS URLs should start with the following protocol which I test using the following regular expression
-	// --------------------------------------------------------------------------------------------------------------------- //
-	private boolean httpMatching(String url){
-
-		return Pattern.compile(UtilityCheck.HTTP_HTTPS_URL_REGEX)
-				.matcher(url)
-				.find();
-	}
-
-	// --------------------------------------------------------------------------------------------------------------------- //
-	// The URL is a maximum of 256 characters in length
-	// --------------------------------------------------------------------------------------------------------------------- //
-	private boolean urlValidationSize(String url)
-	{
-		return (url.length()<=UtilityCheck.LIMIT_URL) ;
-	}
-
-
-	private String getDomainName(String url){
-		String domainName = null;
-		if (url == null) return domainName;
-
-		url = url.trim();
-		Matcher matcher = UtilityCheck.HOST_EXTRACTOR_REGEX_PATTERN.matcher(url);
-		domainName = (matcher.find() && matcher.groupCount() == 2) ? matcher.group(1) + matcher.group(2) : null;
-		return domainName;
-	}
-
-
-
-	// --------------------------------------------------------------------------------------------------------------------- //
-	// the domain is just a single top level domain (so for example it is not a valid URL but it is a valid URL)
-	// --------------------------------------------------------------------------------------------------------------------- //
-	private boolean urlMatching(String url){
-		// the domain is just a single top level domain (so for example it is not a valid URL but it is a valid URL)
-
-        //Find out if there are any occurrences of the word "orpheussoftware" in a sentence:
-		boolean matchFound = UtilityCheck.pattern.matcher(getDomainName(url)).find();
-		return  (Pattern.compile(UtilityCheck.URL_REGEX)
-				.matcher(url)
-				.find() && (matchFound));
-	}
-
-
-
 	// --------------------------------------------------------------------------------------------------------------------- //
 	// 1. Validate that a URL is being passed to the /shorten method
+	// The checks (http/https scheme, a host with a top level domain, the orpheussoftware domain, the UtilityCheck.LIMIT_URL length)
+	// live in UrlValidator, which parses the URL in a single pass instead of running a chain of regular expressions.
+	// The parsed URL is handed on to storage, which splits it the same way, so it is only parsed once. Null if invalid.
 	// --------------------------------------------------------------------------------------------------------------------- //
-	private boolean urlValidator(String url)
+	private ParsedUrl urlValidator(String url)
 	{
-		return (httpMatching(url) && urlMatching(url) && (urlValidationSize(url))) ;
-	}
-	private String getShortUrlEncode(){
-		long random = new Random().nextLong();
-		if(random < 0) random = random * -1;
-		return Base62.encode(random);
+		long start = System.nanoTime();
+		ParsedUrl parsed = validator.parse(url);
+		validationTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		if (parsed == null) {
+			validationRejected.increment();
+		}
+		return parsed;
 	}
 
 	// --------------------------------------------------------------------------------------------------------------------- //
 	// 2. Manage duplicate URLs
 	// --------------------------------------------------------------------------------------------------------------------- //
-	private String manageDuplicateUrl(String longUrl)
+	private long manageDuplicateUrl(String longUrl)
 	{
 		return shortUrlDb.lookupByLongUrl(longUrl);
 	}
@@ -1,63 +1,229 @@
 package net.orfdev;
 
-import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.annotation.PostConstruct;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.ResponseEntity;
-import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
 /**
- * This class is just a crude way of doing very simple DDL and CRUD on a SQL database 
+ * Access to the url mappings for the rest of the application. Lookups by short url go through the
+ * {@link ShortUrlCache}; the actual storage is whichever {@link UrlStore} is configured.
+ * Short urls are passed around as the number their Base62 code encodes.
+ *
+ * Expiry is enforced on lookups here: the expiry comes back with the long url in the same storage lookup and
+ * bounds how long the mapping is cached, and an expired mapping is answered as not found whether or not the
+ * {@link ExpiredUrlReaper} has deleted it yet.
+ *
+ * Inserts and deletes are written to the {@link UrlChangeLog} in the same transaction, so other nodes update their
+ * cache and filter from it.
+ *
+ * Every method is timed into urlshort.db{operation=...} with a percentile histogram. The timers are built once
+ * at startup, recording is a nanoTime pair and no allocation.
  */
 @Component
 public class UrlShortDatabase {
-	
+
+	@Autowired
+	private UrlStore store;
+
+	@Autowired
+	private ShortUrlCache cache;
+
+	@Autowired
+	private ShortUrlFilter filter;
+
+	@Autowired
+	private UrlChangeLog changeLog;
+
 	@Autowired
-	private JdbcTemplate jdbctemplate;
-	
-	
+	private MeterRegistry meterRegistry;
+
+	private Timer insertTimer;
+	private Timer insertBatchTimer;
+	private Timer lookupByShortUrlTimer;
+	private Timer lookupByLongUrlTimer;
+	private Timer lookupByLongUrlsTimer;
+	private Timer warmTimer;
+
+	private final LongAdder inserted = new LongAdder();
+
+
 	@PostConstruct
-	public void constructDB() {
-		jdbctemplate.execute("CREATE TABLE If Not Exists urls (short_url varchar(32) Primary Key, long_url varchar(256));");
+	public void init() {
+		insertTimer = timer("insert");
+		insertBatchTimer = timer("insertBatch");
+		lookupByShortUrlTimer = timer("lookupByShortUrl");
+		lookupByLongUrlTimer = timer("lookupByLongUrl");
+		lookupByLongUrlsTimer = timer("lookupByLongUrls");
+		warmTimer = timer("warm");
 	}
-	
-	
-	public void insert(String base62Number, String longUrl) {	
-		jdbctemplate.update("INSERT INTO urls (short_url, long_url) Values (?,?)", base62Number, longUrl);
+
+	private Timer timer(String operation) {
+		return Timer.builder("urlshort.db").tag("operation", operation)
+				.description("Time taken by url mapping storage operations, cache included")
+				.publishPercentileHistogram()
+				.minimumExpectedValue(Duration.ofNanos(1000))
+				.maximumExpectedValue(Duration.ofSeconds(10))
+				.register(meterRegistry);
+	}
+
+
+	/**
+	 * @return whether the configured storage can keep links that expire
+	 */
+	public boolean supportsExpiry() {
+		return store.supportsExpiry();
 	}
 
-	
-	public String lookupByShortUrl(String shortUrl) {
-		List<String> results = jdbctemplate.queryForList("SELECT long_url FROM urls WHERE short_url = ?", String.class, shortUrl);
-		if(results.isEmpty()){
+	public void insert(long id, String longUrl) {
+		long start = System.nanoTime();
+		store.prepareInsert(Collections.singletonList(new UrlMapping(id, longUrl)));
+		changeLog.inTransaction(() -> {
+			store.insert(id, longUrl);
+			changeLog.record(UrlChangeLog.INSERT, Collections.singletonList(id));
 			return null;
-		}
-		return results.get(0);
+		});
+		filter.add(id);
+		// mappings never change once inserted so a freshly shortened url can go straight into the cache
+		cache.put(id, longUrl);
+		insertTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		inserted.increment();
 	}
 
-	public String lookupByLongUrl(String longUrl) {
-		List<String> results = jdbctemplate.queryForList("SELECT  short_url FROM urls WHERE long_url = ?", String.class, longUrl);
-		if(results.isEmpty()){
+	/**
+	 * Inserts all the mappings in one go; either every row is written or an exception is thrown.
+	 */
+	public void insertBatch(List<UrlMapping> mappings) {
+		long start = System.nanoTime();
+		// outside of the change log's transaction, see UrlStore#prepareInsert
+		store.prepareInsert(mappings);
+		changeLog.inTransaction(() -> {
+			store.insertBatch(mappings);
+			if (changeLog.isEnabled()) {
+				List<Long> ids = new ArrayList<>(mappings.size());
+				for (UrlMapping mapping : mappings) {
+					ids.add(mapping.getId());
+				}
+				changeLog.record(UrlChangeLog.INSERT, ids);
+			}
 			return null;
+		});
+		for (UrlMapping mapping : mappings) {
+			filter.add(mapping.getId());
+			// split as the controller parsed it, rather than parsed again
+			cache.put(mapping);
 		}
-		return results.get(0);
+		insertBatchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		inserted.add(mappings.size());
 	}
 
-	public int getCountShortUrl(String shortUrl) {
-		int count = jdbctemplate.queryForObject("SELECT COUNT(*) FROM urls WHERE short_url = ?", Integer.class, shortUrl);
-		return count;
+
+	public String lookupByShortUrl(long id) {
+		long start = System.nanoTime();
+		String longUrl;
+		ShortUrlCache.Entry cached;
+		if (!filter.mightContain(id)) {
+			// codes the filter has never seen take neither a query nor a cache slot
+			longUrl = null;
+		} else if((cached = cache.get(id)) != null){
+			longUrl = cached.getLongUrl();
+		} else {
+			UrlMapping mapping = store.findMapping(id);
+			if (mapping == null || mapping.isExpired(System.currentTimeMillis())) {
+				longUrl = null;
+				cache.put(id, null);
+			} else {
+				longUrl = mapping.getLongUrl();
+				cache.put(mapping);
+			}
+		}
+		lookupByShortUrlTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		return longUrl;
 	}
 
-	public int getJsonRecordCount(String shortUrl) throws JsonProcessingException {
-		int response =  getCountShortUrl(shortUrl);
-		return response;
+	/**
+	 * Loads the mappings of the given short urls into the cache with one storage lookup, ahead of them being asked for.
+	 * Expiring mappings are skipped, they are cached on their first lookup.
+	 * @return how many of them were loaded
+	 */
+	public int warm(Collection<Long> ids) {
+		long start = System.nanoTime();
+		Map<Long, String> found = store.findLongUrls(ids);
+		for (Map.Entry<Long, String> mapping : found.entrySet()) {
+			cache.put(mapping.getKey(), mapping.getValue());
+		}
+		warmTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		return found.size();
+	}
+
+	/**
+	 * @return the id of a short url for the long url, or -1 if it hasn't been shortened
+	 */
+	public long lookupByLongUrl(String longUrl) {
+		long start = System.nanoTime();
+		long id = store.findId(longUrl);
+		lookupByLongUrlTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		return id;
+	}
+
+	/**
+	 * Looks up the short urls of many long urls in one go.
+	 * @return long url -> short url id for the ones already shortened; urls not in the DB are absent from the map
+	 */
+	public Map<String, Long> lookupByLongUrls(Collection<String> longUrls) {
+		long start = System.nanoTime();
+		Map<String, Long> ids = store.findIds(longUrls);
+		lookupByLongUrlsTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		return ids;
+	}
+
+	/**
+	 * Counts every stored mapping, which can mean a full scan; only meant for periodic stats.
+	 */
+	public long getTotalCount() {
+		return store.countAll();
+	}
+
+	/**
+	 * @return about how many mappings are stored, or -1 if the store has no cheap estimate
+	 */
+	public long getEstimatedCount() {
+		return store.estimateCount();
+	}
+
+	/**
+	 * @return mappings inserted through this node since it started
+	 */
+	public long getInsertedCount() {
+		return inserted.sum();
+	}
+
+	/**
+	 * Deletes up to limit mappings that have expired; see {@link UrlStore#purgeExpired}.
+	 * @return how many were deleted
+	 */
+	public int purgeExpired(int limit) {
+		List<Long> purged = changeLog.inTransaction(() -> {
+			List<Long> ids = store.purgeExpired(System.currentTimeMillis(), limit);
+			changeLog.record(UrlChangeLog.DELETE, ids);
+			return ids;
+		});
+		for (Long id : purged) {
+			cache.invalidate(id);
+		}
+		return purged.size();
 	}
 
 
@@ -0,0 +1,207 @@
+package net.orfdev;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.jdbc.metadata.CompositeDataSourcePoolMetadataProvider;
+import org.springframework.boot.jdbc.metadata.DataSourcePoolMetadata;
+import org.springframework.boot.jdbc.metadata.DataSourcePoolMetadataProvider;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Figures about the service for the load balancer and dashboards, computed in the background so that serving
+ * them never touches the database.
+ *
+ * The in-memory figures (insert rate, cache hit ratio, pool usage) are refreshed every
+ * {@code refresh-interval-millis}. The database is only probed every {@code db-probe-interval-millis}: a connection
+ * check, which is what health reports, plus the store's estimate of the number of mappings (PostgreSQL's planner
+ * statistics), which costs no scan. An exact count is a full scan of the table on every node, so it is only made when
+ * {@code exact-count-interval-millis} is set, at most that often, and is the only source of the total on a
+ * database without estimates. Between probes the total is moved forward by the inserts made through this node; it is
+ * approximate either way.
+ *
+ * Served by {@link UrlShortHealthIndicator} and {@link UrlStatsEndpoint}.
+ */
+@Component
+public class UrlShortStats {
+
+	private static final Logger log = LogManager.getLogger();
+
+	@Autowired
+	private UrlShortDatabase shortUrlDb;
+
+	@Autowired
+	private ShortUrlCache cache;
+
+	@Autowired
+	private JdbcTemplate jdbctemplate;
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Autowired
+	private ObjectProvider<DataSourcePoolMetadataProvider> poolMetadataProviders;
+
+	@Value("${urlshort.stats.db-probe-timeout-seconds:2}")
+	private int probeTimeoutSeconds;
+
+	// 0 never counts exactly
+	@Value("${urlshort.stats.exact-count-interval-millis:0}")
+	private long exactCountIntervalMillis;
+
+	// null when the pool implementation isn't one Spring Boot knows about
+	private DataSourcePoolMetadata poolMetadata;
+
+	private volatile Snapshot snapshot;
+
+	// results of the last database probe
+	private volatile Boolean dbUp;
+	private volatile String dbError;
+	private volatile long countedTotal = -1;
+	private volatile long insertedAtCount;
+	private volatile Instant lastProbe;
+	// only touched by probeDatabase, which the scheduler never runs concurrently
+	private long lastExactCountNanos;
+
+	// previous refresh, to turn counters into rates; guarded by this
+	private long lastRefreshNanos;
+	private long lastInserted;
+	private long lastHits;
+	private long lastMisses;
+
+
+	@PostConstruct
+	public void init() {
+		poolMetadata = new CompositeDataSourcePoolMetadataProvider(poolMetadataProviders.orderedStream().collect(Collectors.toList()))
+				.getDataSourcePoolMetadata(dataSource);
+		refresh();
+	}
+
+
+	/**
+	 * @return the latest figures; never null
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	@Scheduled(fixedDelayString = "${urlshort.stats.refresh-interval-millis:5000}")
+	public synchronized void refresh() {
+		long now = System.nanoTime();
+		long inserted = shortUrlDb.getInsertedCount();
+		long hits = cache.getHitCount();
+		long misses = cache.getMissCount();
+
+		// figures that aren't known yet are left out rather than reported as null
+		Map<String, Object> figures = new LinkedHashMap<>();
+		long total = countedTotal;
+		if (total >= 0) {
+			figures.put("totalMappings", total + (inserted - insertedAtCount));
+		}
+		if (lastRefreshNanos != 0) {
+			double seconds = (now - lastRefreshNanos) / 1e9;
+			figures.put("insertRatePerSecond", round((inserted - lastInserted) / seconds));
+			long lookups = (hits - lastHits) + (misses - lastMisses);
+			if (lookups > 0) {
+				figures.put("cacheHitRatio", round((double) (hits - lastHits) / lookups));
+			}
+		}
+		figures.put("cacheSize", cache.size());
+		if (poolMetadata != null) {
+			putIfKnown(figures, "poolActive", poolMetadata.getActive());
+			putIfKnown(figures, "poolMax", poolMetadata.getMax());
+			Float usage = poolMetadata.getUsage();
+			if (usage != null) {
+				figures.put("poolUsage", round(usage));
+			}
+		}
+		if (lastProbe != null) {
+			figures.put("lastDbProbe", lastProbe.toString());
+		}
+		if (dbError != null) {
+			figures.put("dbError", dbError);
+		}
+
+		lastRefreshNanos = now;
+		lastInserted = inserted;
+		lastHits = hits;
+		lastMisses = misses;
+		snapshot = new Snapshot(dbUp, Collections.unmodifiableMap(figures));
+	}
+
+	@Scheduled(fixedDelayString = "${urlshort.stats.db-probe-interval-millis:60000}")
+	public void probeDatabase() {
+		long inserted = shortUrlDb.getInsertedCount();
+		try {
+			Boolean valid = jdbctemplate.execute((ConnectionCallback<Boolean>) con -> con.isValid(probeTimeoutSeconds));
+			if (Boolean.TRUE.equals(valid)) {
+				long total = countTotal();
+				if (total >= 0) {
+					countedTotal = total;
+					insertedAtCount = inserted;
+				}
+				dbError = null;
+				dbUp = true;
+			} else {
+				dbError = "Connection not valid";
+				dbUp = false;
+			}
+		} catch (DataAccessException ex) {
+			log.warn("Database probe failed", ex);
+			dbError = ex.getMessage();
+			dbUp = false;
+		}
+		lastProbe = Instant.now();
+		refresh();
+	}
+
+	// the exact count when one is due, else the estimate; -1 if neither
+	private long countTotal() {
+		long now = System.nanoTime();
+		if (exactCountIntervalMillis > 0
+				&& (lastExactCountNanos == 0 || now - lastExactCountNanos >= TimeUnit.MILLISECONDS.toNanos(exactCountIntervalMillis))) {
+			lastExactCountNanos = now;
+			return shortUrlDb.getTotalCount();
+		}
+		return shortUrlDb.getEstimatedCount();
+	}
+
+	private static void putIfKnown(Map<String, Object> figures, String name, Object value) {
+		if (value != null) {
+			figures.put(name, value);
+		}
+	}
+
+	private static double round(double value) {
+		return Math.round(value * 1000) / 1000.0;
+	}
+
+
+	public static final class Snapshot {
+
+		/** null until the database has been probed once */
+		public final Boolean dbUp;
+		public final Map<String, Object> figures;
+
+		Snapshot(Boolean dbUp, Map<String, Object> figures) {
+			this.dbUp = dbUp;
+			this.figures = figures;
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package net.orfdev;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * /actuator/urlstats: the figures {@link UrlShortStats} pre-computes (total mappings, insert rate, cache hit ratio,
+ * pool saturation), served from memory.
+ */
+@Component
+@Endpoint(id = "urlstats")
+public class UrlStatsEndpoint {
+
+	@Autowired
+	private UrlShortStats stats;
+
+	@ReadOperation
+	public Map<String, Object> stats() {
+		return stats.getSnapshot().figures;
+	}
+}
@@ -0,0 +1,91 @@
+package net.orfdev;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+/**
+ * Storage of the short url -> long url mappings, behind {@link UrlShortDatabase} which adds caching on top.
+ *
+ * Short urls are keyed by the number their Base62 code encodes (see {@link Base62#tryDecodeCanonical}), never by
+ * the code itself; turning one into the other is left to the web layer.
+ *
+ * The implementation is picked with the urlshort.storage property: "jdbc" (default) keeps the mappings in the
+ * urls table, "mapped" in an embedded append-only log with a memory-mapped hash index.
+ *
+ * Mappings inserted with an expiry ({@link UrlMapping#getExpiresAt()}) are only supported by the stores that say so
+ * with {@link #supportsExpiry()}, the jdbc one. They
+ * are never returned by the lookups by long url, so shortening a url again doesn't hand out a link that is about to
+ * die, and they stay in storage after expiring until {@link #purgeExpired} deletes them.
+ */
+public interface UrlStore {
+
+	/**
+	 * @return whether mappings with an expiry can be inserted; the others refuse them
+	 */
+	boolean supportsExpiry();
+
+	void insert(long id, String longUrl);
+
+	/**
+	 * Does what inserting the mappings needs done on connections of its own, committed straight away, such as adding
+	 * new url origins. Called outside of any transaction, before the one the mappings are inserted in.
+	 */
+	void prepareInsert(List<UrlMapping> mappings);
+
+	/**
+	 * Inserts all the mappings; either every one is written or an exception is thrown.
+	 */
+	void insertBatch(List<UrlMapping> mappings);
+
+	/**
+	 * @return the long url, or null if the short url doesn't exist or has expired
+	 */
+	String findLongUrl(long id);
+
+	/**
+	 * @return the mapping with its expiry, or null if the short url doesn't exist; expired mappings that haven't
+	 * been purged yet are returned too
+	 */
+	UrlMapping findMapping(long id);
+
+	/**
+	 * @return short url id -> long url for the ones that exist and never expire; other ids are absent from the map
+	 */
+	Map<Long, String> findLongUrls(Collection<Long> ids);
+
+	/**
+	 * @return the id of a short url for the long url, or -1 if it hasn't been shortened
+	 */
+	long findId(String longUrl);
+
+	/**
+	 * @return long url -> short url id for the ones already shortened; urls not stored are absent from the map
+	 */
+	Map<String, Long> findIds(Collection<String> longUrls);
+
+	/**
+	 * @return how many mappings are stored in total; may need a full scan, so call it sparingly
+	 */
+	long countAll();
+
+	/**
+	 * @return about how many mappings are stored, from statistics the store keeps anyway, or -1 if it keeps none;
+	 *         cheap enough to call periodically on every node
+	 */
+	long estimateCount();
+
+	/**
+	 * Calls the consumer with the id of every stored mapping, reading from the primary copy of the data. Mappings
+	 * inserted while this runs may or may not be visited.
+	 */
+	void forEachId(LongConsumer consumer);
+
+	/**
+	 * Deletes up to limit mappings that expired at or before nowMillis, oldest expiry first.
+	 * @return the ids of the mappings deleted
+	 */
+	List<Long> purgeExpired(long nowMillis, int limit);
+
+}
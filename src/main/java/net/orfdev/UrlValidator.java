@@ -0,0 +1,201 @@
+package net.orfdev;
+
+import java.util.Locale;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Validates the urls passed to the /shorten methods.
+ *
+ * This replaces the chain of regular expressions in {@link UtilityCheck}: the url is checked against
+ * {@link UtilityCheck#LIMIT_URL} first and then scanned once, left to right, splitting out scheme, user info,
+ * host, port and path as it goes. There is no backtracking so the cost is linear in the length of the url
+ * whatever it contains. A url is accepted when:
+ * <ul>
+ * <li>it is at most {@link UtilityCheck#LIMIT_URL} characters long</li>
+ * <li>it starts with http:// or https://</li>
+ * <li>the host is made of dot separated labels and ends with an alphabetic top level domain of 2 to 6 letters</li>
+ * <li>the host contains {@link UtilityCheck#REQUIRED_DOMAIN_KEYWORD}</li>
+ * <li>the port, if any, is a number up to 65535 and the rest of the url has no whitespace or control characters</li>
+ * </ul>
+ */
+@Component
+public class UrlValidator {
+
+	private static final int MAX_HOST_LENGTH = 253;
+	private static final int MAX_LABEL_LENGTH = 63;
+
+
+	public boolean isValid(String url) {
+		return parse(url) != null;
+	}
+
+	/**
+	 * @return the parsed url, or null if the url isn't valid
+	 */
+	public ParsedUrl parse(String url) {
+		return parseUrl(url);
+	}
+
+	/**
+	 * {@link #parse}, for the places that split urls already stored (see {@link UrlMapping#getParsedUrl()}) and
+	 * have no bean at hand.
+	 */
+	static ParsedUrl parseUrl(String url) {
+		if (url == null || url.length() > UtilityCheck.LIMIT_URL) {
+			return null;
+		}
+		int length = url.length();
+
+		String scheme;
+		int pos;
+		if (url.regionMatches(true, 0, "http://", 0, 7)) {
+			scheme = "http";
+			pos = 7;
+		} else if (url.regionMatches(true, 0, "https://", 0, 8)) {
+			scheme = "https";
+			pos = 8;
+		} else {
+			return null;
+		}
+
+		// the authority runs up to the first '/', '?' or '#'; remember where the user info and port separators are
+		int authorityStart = pos;
+		int at = -1;
+		int colon = -1;
+		while (pos < length) {
+			char c = url.charAt(pos);
+			if (c == '/' || c == '?' || c == '#') {
+				break;
+			}
+			if (c == '@') {
+				if (at >= 0) {
+					return null;
+				}
+				at = pos;
+				colon = -1;
+			} else if (c == ':') {
+				colon = pos;
+			}
+			pos++;
+		}
+		int pathStart = pos;
+
+		int hostStart = authorityStart;
+		if (at >= 0) {
+			if (!isUserInfo(url, authorityStart, at)) {
+				return null;
+			}
+			hostStart = at + 1;
+		}
+
+		int hostEnd = pathStart;
+		int port = -1;
+		if (colon >= 0) {
+			port = parsePort(url, colon + 1, pathStart);
+			if (port < 0) {
+				return null;
+			}
+			hostEnd = colon;
+		}
+
+		if (!isHost(url, hostStart, hostEnd) || !containsKeyword(url, hostStart, hostEnd)) {
+			return null;
+		}
+
+		for (int i = pathStart; i < length; i++) {
+			char c = url.charAt(i);
+			if (c <= ' ' || c == 0x7f) {
+				return null;
+			}
+		}
+
+		return new ParsedUrl(url, scheme, url.substring(hostStart, hostEnd).toLowerCase(Locale.ROOT), port, pathStart);
+	}
+
+	// user[:password] made of word characters, as accepted by the old HTTP_HTTPS_URL_REGEX
+	private static boolean isUserInfo(String url, int start, int end) {
+		if (start == end) {
+			return false;
+		}
+		boolean seenColon = false;
+		for (int i = start; i < end; i++) {
+			char c = url.charAt(i);
+			if (c == ':') {
+				if (seenColon || i == start) {
+					return false;
+				}
+				seenColon = true;
+			} else if (!isWordChar(c)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int parsePort(String url, int start, int end) {
+		if (start == end || end - start > 5) {
+			return -1;
+		}
+		int port = 0;
+		for (int i = start; i < end; i++) {
+			char c = url.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			port = port * 10 + (c - '0');
+		}
+		return port <= 65535 ? port : -1;
+	}
+
+	// dot separated labels of letters, digits and inner hyphens, the last one (the TLD) being 2 to 6 letters
+	private static boolean isHost(String url, int start, int end) {
+		if (end - start < 1 || end - start > MAX_HOST_LENGTH) {
+			return false;
+		}
+		int labels = 0;
+		int labelStart = start;
+		boolean alphabeticLabel = true;
+		for (int i = start; i <= end; i++) {
+			char c = i < end ? url.charAt(i) : '.';
+			if (c == '.') {
+				int labelLength = i - labelStart;
+				if (labelLength == 0 || labelLength > MAX_LABEL_LENGTH
+						|| url.charAt(labelStart) == '-' || url.charAt(i - 1) == '-') {
+					return false;
+				}
+				labels++;
+				if (i == end) {
+					return labels >= 2 && alphabeticLabel && labelLength >= 2 && labelLength <= 6;
+				}
+				labelStart = i + 1;
+				alphabeticLabel = true;
+			} else if (isLetter(c)) {
+				// still alphabetic
+			} else if ((c >= '0' && c <= '9') || c == '-') {
+				alphabeticLabel = false;
+			} else {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	private static boolean containsKeyword(String url, int start, int end) {
+		String keyword = UtilityCheck.REQUIRED_DOMAIN_KEYWORD;
+		for (int i = start, last = end - keyword.length(); i <= last; i++) {
+			if (url.regionMatches(true, i, keyword, 0, keyword.length())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isLetter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static boolean isWordChar(char c) {
+		return isLetter(c) || (c >= '0' && c <= '9') || c == '_';
+	}
+}
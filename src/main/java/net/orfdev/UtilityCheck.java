@@ -8,13 +8,17 @@ public interface UtilityCheck {
 
     static final String HOST_EXTRACTOR_REGEX = "(?:https?://)?(?:www\\.)?(.+\\.)(com|au\\.uk|co\\.in|be|in|uk|org\\.in|org|net|edu|gov|mil)";
 
-    static final Pattern pattern = Pattern.compile("orpheussoftware", Pattern.CASE_INSENSITIVE);
+    static final String REQUIRED_DOMAIN_KEYWORD = "orpheussoftware";
+
+    static final Pattern pattern = Pattern.compile(REQUIRED_DOMAIN_KEYWORD, Pattern.CASE_INSENSITIVE);
 
     static final Pattern HOST_EXTRACTOR_REGEX_PATTERN = Pattern.compile(HOST_EXTRACTOR_REGEX);
 
     static final String APPLICATION_JSON_VALUE = "application/json";
+    static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
 
 
     static final int NUM_MAX_TIMES = 15;
-    static final int LIMIT_URL = 256;
+    static final int LIMIT_URL = 4096;
+    static final int BULK_CHUNK_SIZE = 500;
 }
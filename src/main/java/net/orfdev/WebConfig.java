@@ -0,0 +1,21 @@
+package net.orfdev;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Puts the {@link ShortenRateLimiter} in front of the shorten endpoints; redirects are not limited.
+ */
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+	@Autowired
+	private ShortenRateLimiter shortenRateLimiter;
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(shortenRateLimiter).addPathPatterns("/html/shorten", "/json/shorten", "/json/shorten/bulk");
+	}
+}
@@ -1,6 +1,14 @@
 package net.orfdev;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.jupiter.api.Test;
 
@@ -51,4 +59,75 @@ public class Base62Test {
 		assertEquals(11, cMaxChars);
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void testRoundTripOfBounds() {
+		assertEquals("0", Base62.encode(0));
+		assertEquals(0, Base62.decode("0"));
+		assertEquals(Long.MAX_VALUE, Base62.decode(Base62.encode(Long.MAX_VALUE)));
+		assertEquals(Base62.MAX_LENGTH, Base62.encode(Long.MAX_VALUE).length());
+	}
+
+	@Test
+	public void testDecodeOverflow() {
+		String max = Base62.encode(Long.MAX_VALUE);
+		assertThrows(IllegalArgumentException.class, () -> Base62.decode("1" + max));
+		assertThrows(IllegalArgumentException.class, () -> Base62.decode("ZZZZZZZZZZZ"));
+		assertThrows(IllegalArgumentException.class, () -> Base62.decode(""));
+		assertEquals(-1, Base62.tryDecode("ZZZZZZZZZZZ"));
+		assertEquals(-1, Base62.tryDecode("6JaY2!"));
+		assertEquals(-1, Base62.tryDecode(""));
+		assertEquals(99424938, Base62.tryDecode("6JaY2"));
+	}
+
+	@Test
+	public void testTryDecodeCanonical() {
+		assertEquals(99424938, Base62.tryDecodeCanonical("6JaY2"));
+		assertEquals(0, Base62.tryDecodeCanonical("0"));
+		assertEquals(-1, Base62.tryDecodeCanonical("06JaY2"));
+		assertEquals(-1, Base62.tryDecodeCanonical("not-base62"));
+	}
+
+	@Test
+	public void testEncodeIntoBuffers() {
+		char[] chars = new char[16];
+		assertEquals(5, Base62.encode(99424938, chars, 2));
+		assertEquals("6JaY2", new String(chars, 2, 5));
+
+		byte[] bytes = new byte[16];
+		assertEquals(5, Base62.encode(99424938, bytes, 3));
+		assertArrayEquals("6JaY2".getBytes(StandardCharsets.US_ASCII), Arrays.copyOfRange(bytes, 3, 8));
+		assertEquals(99424938, Base62.decode(bytes, 3, 5));
+
+		ByteBuffer buffer = ByteBuffer.allocate(16);
+		buffer.put((byte) '/');
+		Base62.encode(99424938, buffer);
+		assertEquals(6, buffer.position());
+		buffer.flip();
+		buffer.position(1);
+		assertEquals(99424938, Base62.decode(buffer));
+		assertEquals(1, buffer.position());
+	}
+
+	@Test
+	public void testEncodeFixedWidth() {
+		assertEquals("0000006jAy2", Base62.encodeFixed(99424938, 11));
+		assertEquals(99424938, Base62.decodeFixed("0000006jAy2"));
+		assertEquals(Long.MAX_VALUE, Base62.decodeFixed(Base62.encodeFixed(Long.MAX_VALUE, Base62.MAX_LENGTH)));
+		assertThrows(IllegalArgumentException.class, () -> Base62.encodeFixed(99424938, 4));
+
+		// fixed width codes sort in numeric order, lower case digits included
+		assertTrue(Base62.encodeFixed(10, 4).compareTo(Base62.encodeFixed(36, 4)) < 0);
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			long a = random.nextLong() >>> 1;
+			long b = random.nextInt(3) == 0 ? a + random.nextInt(1000) - 500 : random.nextLong() >>> 1;
+			if (a < 0 || b < 0) {
+				continue;
+			}
+			String codeA = Base62.encodeFixed(a, Base62.MAX_LENGTH);
+			String codeB = Base62.encodeFixed(b, Base62.MAX_LENGTH);
+			assertEquals(Long.signum(Long.compare(a, b)), Integer.signum(codeA.compareTo(codeB)), codeA + " vs " + codeB);
+		}
+	}
+
+}
@@ -0,0 +1,47 @@
+package net.orfdev;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class BloomFilterTest {
+
+	@Test
+	public void testNoFalseNegatives() {
+		BloomFilter filter = BloomFilter.create(100000, 0.01);
+		IdScrambler scrambler = new IdScrambler(0x2545F4914F6CDD1DL);
+		for (long i = 1; i <= 100000; i++) {
+			filter.put(scrambler.scramble(i));
+		}
+		for (long i = 1; i <= 100000; i++) {
+			assertTrue(filter.mightContain(scrambler.scramble(i)));
+		}
+	}
+
+	@Test
+	public void testFalsePositiveRateIsNearTheTarget() {
+		BloomFilter filter = BloomFilter.create(100000, 0.01);
+		for (long i = 1; i <= 100000; i++) {
+			filter.put(i);
+		}
+		Random random = new Random(42);
+		int falsePositives = 0;
+		int probes = 100000;
+		for (int i = 0; i < probes; i++) {
+			// random codes, as a scanner would send
+			if (filter.mightContain(200000 + (random.nextLong() & IdScrambler.MASK))) {
+				falsePositives++;
+			}
+		}
+		assertTrue(falsePositives < probes * 0.015, "false positives: " + falsePositives);
+	}
+
+	@Test
+	public void testBadSizing() {
+		assertThrows(IllegalArgumentException.class, () -> BloomFilter.create(0, 0.01));
+		assertThrows(IllegalArgumentException.class, () -> BloomFilter.create(1000, 1));
+	}
+}
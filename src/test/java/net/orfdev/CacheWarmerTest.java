@@ -0,0 +1,76 @@
+package net.orfdev;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class CacheWarmerTest {
+
+	@TempDir
+	Path dir;
+
+	private static ShortUrlCache cache(int maximumSize) {
+		ShortUrlCache cache = new ShortUrlCache();
+		ReflectionTestUtils.setField(cache, "maximumSize", maximumSize);
+		ReflectionTestUtils.setField(cache, "ttlSeconds", 600L);
+		ReflectionTestUtils.setField(cache, "negativeTtlSeconds", 30L);
+		cache.init();
+		return cache;
+	}
+
+	private CacheWarmer warmer(ShortUrlCache cache, Path snapshot) {
+		CacheWarmer warmer = new CacheWarmer();
+		ReflectionTestUtils.setField(warmer, "cache", cache);
+		ReflectionTestUtils.setField(warmer, "enabled", true);
+		ReflectionTestUtils.setField(warmer, "size", 10000);
+		ReflectionTestUtils.setField(warmer, "snapshotFile", snapshot.toString());
+		return warmer;
+	}
+
+	@Test
+	public void testSnapshotIsLoadedByTheNextInstance() throws Exception {
+		Path snapshot = dir.resolve("cache.snapshot");
+		ShortUrlCache before = cache(16 * 1000);
+		for (long id = 1; id <= 5000; id++) {
+			before.put(id, "https://www.orpheussoftware.co.uk/" + id + "/\u00e9t\u00e9");
+		}
+		before.put(424242L, null);
+		warmer(before, snapshot).writeSnapshot();
+		assertTrue(Files.exists(snapshot));
+
+		ShortUrlCache after = cache(16 * 1000);
+		warmer(after, snapshot).run(null);
+
+		assertEquals(5000, after.size());
+		assertEquals("https://www.orpheussoftware.co.uk/42/\u00e9t\u00e9", after.get(42L).getLongUrl());
+		// negative entries are not carried over
+		assertNull(after.get(424242L));
+	}
+
+	@Test
+	public void testSnapshotKeepsRecencyOrder() throws Exception {
+		Path snapshot = dir.resolve("cache.snapshot");
+		// 16 segments of 4 entries, most of the 1000 puts evicted
+		ShortUrlCache before = cache(16 * 4);
+		for (long id = 1; id <= 1000; id++) {
+			before.put(id, "https://www.orpheussoftware.co.uk/" + id);
+		}
+		warmer(before, snapshot).writeSnapshot();
+
+		final StringBuilder order = new StringBuilder();
+		ShortUrlCache after = cache(16 * 4);
+		warmer(after, snapshot).run(null);
+		after.forEach((id, longUrl) -> order.append(id).append(','));
+
+		final StringBuilder expected = new StringBuilder();
+		before.forEach((id, longUrl) -> expected.append(id).append(','));
+		assertEquals(expected.toString(), order.toString());
+	}
+}
@@ -0,0 +1,78 @@
+package net.orfdev;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ClickCounterTest {
+
+	private JdbcTemplate jdbc;
+	private ClickCounter counter;
+	// fails the next INSERT into url_clicks, after the batch of UPDATEs has gone through
+	private volatile boolean failNextInsert;
+
+	@BeforeEach
+	public void setup() {
+		jdbc = new JdbcTemplate(new DriverManagerDataSource("jdbc:hsqldb:mem:clickcountertest", "SA", "")) {
+			@Override
+			public int update(String sql, Object... args) {
+				if (failNextInsert && sql.startsWith("INSERT INTO url_clicks")) {
+					failNextInsert = false;
+					throw new DataAccessResourceFailureException("Connection lost");
+				}
+				return super.update(sql, args);
+			}
+		};
+		counter = new ClickCounter();
+		ReflectionTestUtils.setField(counter, "jdbctemplate", jdbc);
+		ReflectionTestUtils.setField(counter, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(counter, "totalsCacheSize", 100);
+		counter.init();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		jdbc.execute("SHUTDOWN");
+	}
+
+	private long stored(long id) {
+		return jdbc.query("SELECT clicks FROM url_clicks WHERE id = ?", rs -> rs.next() ? rs.getLong(1) : 0L, id);
+	}
+
+	private void click(long id, int times) {
+		for (int i = 0; i < times; i++) {
+			counter.record(id);
+		}
+	}
+
+	@Test
+	public void testFailedFlushIsNotCountedTwice() {
+		click(1, 3);
+		counter.flush();
+		assertEquals(3, stored(1));
+		assertEquals(3, counter.getClicks(1));
+
+		// the UPDATE of 1 goes through, the INSERT of 2 doesn't
+		click(1, 2);
+		click(2, 1);
+		failNextInsert = true;
+		counter.flush();
+		assertEquals(3, stored(1));
+		assertEquals(0, stored(2));
+		assertEquals(5, counter.getClicks(1));
+
+		counter.flush();
+		assertEquals(5, stored(1));
+		assertEquals(1, stored(2));
+		assertEquals(5, counter.getClicks(1));
+		assertEquals(1, counter.getClicks(2));
+	}
+}
@@ -0,0 +1,40 @@
+package net.orfdev;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+public class IdScramblerTest {
+
+	private final IdScrambler scrambler = new IdScrambler(0x2545F4914F6CDD1DL);
+
+	@Test
+	public void testScrambleIsReversible() {
+		for (long id = 0; id < 100000; id++) {
+			long value = scrambler.scramble(id);
+			assertTrue(value >= 0 && value <= IdScrambler.MASK);
+			assertEquals(id, scrambler.unscramble(value));
+		}
+		assertEquals(IdScrambler.MASK, scrambler.scramble(scrambler.unscramble(IdScrambler.MASK)));
+	}
+
+	@Test
+	public void testScrambleHasNoCollisions() {
+		Set<Long> seen = new HashSet<>();
+		for (long id = 1; id <= 100000; id++) {
+			assertTrue(seen.add(scrambler.scramble(id)));
+		}
+	}
+
+	@Test
+	public void testConsecutiveIdsDoNotGiveConsecutiveCodes() {
+		String first = Base62.encode(scrambler.scramble(1));
+		String second = Base62.encode(scrambler.scramble(2));
+		assertNotEquals(first.substring(0, 3), second.substring(0, 3));
+	}
+}
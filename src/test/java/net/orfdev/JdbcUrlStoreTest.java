@@ -0,0 +1,246 @@
+package net.orfdev;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class JdbcUrlStoreTest {
+
+	private JdbcTemplate jdbc;
+
+	@BeforeEach
+	public void setup() {
+		jdbc = new JdbcTemplate(new DriverManagerDataSource("jdbc:hsqldb:mem:jdbcurlstoretest", "SA", ""));
+	}
+
+	@AfterEach
+	public void tearDown() {
+		jdbc.execute("SHUTDOWN");
+	}
+
+	private JdbcUrlStore open() {
+		JdbcUrlStore store = new JdbcUrlStore();
+		ReflectionTestUtils.setField(store, "jdbctemplate", jdbc);
+		store.constructDB();
+		return store;
+	}
+
+	@Test
+	public void testVarcharTableIsMigrated() {
+		jdbc.execute("CREATE TABLE urls (short_url varchar(32) Primary Key, long_url varchar(256))");
+		for (int i = 1; i <= 2500; i++) {
+			jdbc.update("INSERT INTO urls (short_url, long_url) Values (?,?)", Base62.encode(i * 7919L), "https://www.orpheussoftware.co.uk/" + i);
+		}
+		jdbc.update("INSERT INTO urls (short_url, long_url) Values (?,?)", "not-base62", "https://www.orpheussoftware.co.uk/bad");
+
+		JdbcUrlStore store = open();
+
+		assertFalse(SchemaSupport.columnExists(jdbc, "urls", "short_url"));
+		assertFalse(SchemaSupport.tableExists(jdbc, "urls_old"));
+		assertEquals(2500, (int) jdbc.queryForObject("SELECT COUNT(*) FROM urls", Integer.class));
+		assertEquals("https://www.orpheussoftware.co.uk/42", store.findLongUrl(42 * 7919L));
+		assertEquals(2500 * 7919L, store.findId("https://www.orpheussoftware.co.uk/2500"));
+		assertEquals(-1, store.findId("https://www.orpheussoftware.co.uk/bad"));
+	}
+
+	@Test
+	public void testInterruptedSwapIsResumed() {
+		// the copy had finished and the old table was dropped, the crash came before the rename
+		jdbc.execute("CREATE TABLE urls_migrating (id BIGINT Primary Key, long_url varchar(256), long_url_hash BIGINT)");
+		jdbc.update("INSERT INTO urls_migrating (id, long_url, long_url_hash) Values (?,?,?)", 42L,
+				"https://www.orpheussoftware.co.uk/42", UrlHash.hash64("https://www.orpheussoftware.co.uk/42"));
+
+		JdbcUrlStore store = open();
+		assertFalse(SchemaSupport.tableExists(jdbc, "urls_migrating"));
+		assertEquals("https://www.orpheussoftware.co.uk/42", store.findLongUrl(42));
+		assertEquals(42, store.findId("https://www.orpheussoftware.co.uk/42"));
+	}
+
+	@Test
+	public void testOldTableIsDroppedAfterSwap() {
+		// the crash came after the swap, before the old table was dropped
+		jdbc.execute("CREATE TABLE urls_old (short_url varchar(32) Primary Key, long_url varchar(256))");
+		jdbc.execute("CREATE TABLE urls (id BIGINT Primary Key, long_url varchar(256), long_url_hash BIGINT)");
+		jdbc.update("INSERT INTO urls (id, long_url) Values (?,?)", 7L, "https://www.orpheussoftware.co.uk/7");
+
+		JdbcUrlStore store = open();
+		assertFalse(SchemaSupport.tableExists(jdbc, "urls_old"));
+		assertEquals("https://www.orpheussoftware.co.uk/7", store.findLongUrl(7));
+	}
+
+	@Test
+	public void testInsertAndLookup() {
+		JdbcUrlStore store = open();
+		long id = Base62.decode("6JaY2");
+		store.insert(id, "https://www.orpheussoftware.co.uk/about");
+
+		assertEquals("https://www.orpheussoftware.co.uk/about", store.findLongUrl(id));
+		assertEquals(id, store.findId("https://www.orpheussoftware.co.uk/about"));
+		assertNull(store.findLongUrl(id + 1));
+	}
+
+	@Test
+	public void testExpiringMapping() {
+		JdbcUrlStore store = open();
+		long now = System.currentTimeMillis();
+		store.insertBatch(Arrays.asList(
+				new UrlMapping(1, "https://www.orpheussoftware.co.uk/campaign", now + 60000),
+				new UrlMapping(2, "https://www.orpheussoftware.co.uk/over", now - 1)));
+
+		assertEquals("https://www.orpheussoftware.co.uk/campaign", store.findLongUrl(1));
+		assertEquals(now + 60000, store.findMapping(1).getExpiresAt());
+		assertNull(store.findLongUrl(2));
+		assertTrue(store.findMapping(2).isExpired(now));
+		// expiring links are never handed out again for the same url
+		assertEquals(-1, store.findId("https://www.orpheussoftware.co.uk/campaign"));
+		assertTrue(store.findIds(Arrays.asList("https://www.orpheussoftware.co.uk/campaign")).isEmpty());
+		assertTrue(store.findLongUrls(Arrays.asList(1L, 2L)).isEmpty());
+	}
+
+	@Test
+	public void testPurgeExpiredInBatches() {
+		JdbcUrlStore store = open();
+		long now = System.currentTimeMillis();
+		List<UrlMapping> mappings = new ArrayList<>();
+		for (int i = 1; i <= 25; i++) {
+			mappings.add(new UrlMapping(i, "https://www.orpheussoftware.co.uk/" + i, now - i));
+		}
+		mappings.add(new UrlMapping(100, "https://www.orpheussoftware.co.uk/later", now + 60000));
+		mappings.add(new UrlMapping(101, "https://www.orpheussoftware.co.uk/forever"));
+		store.insertBatch(mappings);
+
+		List<Long> purged = store.purgeExpired(now, 10);
+		assertEquals(10, purged.size());
+		// oldest expiry first
+		assertTrue(purged.contains(25L));
+		assertNull(store.findMapping(25));
+		assertEquals(10, store.purgeExpired(now, 10).size());
+		assertEquals(5, store.purgeExpired(now, 10).size());
+		assertTrue(store.purgeExpired(now, 10).isEmpty());
+
+		assertEquals(2, store.countAll());
+		// HSQL keeps no estimate we read
+		assertEquals(-1, store.estimateCount());
+		assertEquals("https://www.orpheussoftware.co.uk/later", store.findLongUrl(100));
+		assertEquals(101, store.findId("https://www.orpheussoftware.co.uk/forever"));
+	}
+
+	@Test
+	public void testCompactUrls() {
+		// a row written in full, as before compact urls
+		JdbcUrlStore store = open();
+		store.insert(1, "https://www.orpheussoftware.co.uk/before");
+		ReflectionTestUtils.setField(store, "compactUrls", true);
+
+		List<UrlMapping> mappings = new ArrayList<>();
+		for (int i = 2; i <= 100; i++) {
+			mappings.add(new UrlMapping(i, "https://www.orpheussoftware.co.uk/campaign/" + i + "?utm_source=test"));
+		}
+		mappings.add(new UrlMapping(101, "https://shop.orpheussoftware.co.uk"));
+		store.insertBatch(mappings);
+
+		assertEquals(2, (int) jdbc.queryForObject("SELECT COUNT(*) FROM url_origins", Integer.class));
+		assertNull(jdbc.queryForObject("SELECT long_url FROM urls WHERE id = 42", String.class));
+		assertEquals("/campaign/42?utm_source=test", jdbc.queryForObject("SELECT url_rest FROM urls WHERE id = 42", String.class));
+
+		assertEquals("https://www.orpheussoftware.co.uk/before", store.findLongUrl(1));
+		assertEquals("https://www.orpheussoftware.co.uk/campaign/42?utm_source=test", store.findLongUrl(42));
+		assertEquals("https://shop.orpheussoftware.co.uk", store.findLongUrl(101));
+		assertEquals(42, store.findId("https://www.orpheussoftware.co.uk/campaign/42?utm_source=test"));
+		assertEquals(1, store.findId("https://www.orpheussoftware.co.uk/before"));
+		assertEquals(2, store.findIds(Arrays.asList("https://shop.orpheussoftware.co.uk", "https://www.orpheussoftware.co.uk/before")).size());
+		assertEquals("https://www.orpheussoftware.co.uk/campaign/7?utm_source=test", store.findLongUrls(Arrays.asList(7L)).get(7L));
+
+		// a node starting later reads the dictionary back
+		JdbcUrlStore other = open();
+		assertEquals("https://www.orpheussoftware.co.uk/campaign/42?utm_source=test", other.findLongUrl(42));
+	}
+
+	@Test
+	public void testNewOriginsDontWaitForASecondConnection() {
+		// one connection: a transaction asking the pool for another one would time out
+		org.apache.tomcat.jdbc.pool.DataSource pool = new org.apache.tomcat.jdbc.pool.DataSource();
+		pool.setDriverClassName("org.hsqldb.jdbc.JDBCDriver");
+		pool.setUrl("jdbc:hsqldb:mem:jdbcurlstoretest");
+		pool.setUsername("SA");
+		pool.setPassword("");
+		pool.setInitialSize(0);
+		pool.setMaxActive(1);
+		pool.setMaxIdle(1);
+		pool.setMaxWait(1000);
+		try {
+			JdbcUrlStore store = new JdbcUrlStore();
+			ReflectionTestUtils.setField(store, "jdbctemplate", new JdbcTemplate(pool));
+			ReflectionTestUtils.setField(store, "compactUrls", true);
+			store.constructDB();
+			store.insertBatch(Arrays.asList(new UrlMapping(1, "https://www.orpheussoftware.co.uk/about"),
+					new UrlMapping(2, "https://shop.orpheussoftware.co.uk/cart")));
+
+			assertEquals(2, (int) jdbc.queryForObject("SELECT COUNT(*) FROM urls WHERE origin_id IS NOT NULL", Integer.class));
+			assertEquals("https://shop.orpheussoftware.co.uk/cart", store.findLongUrl(2));
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testLongUrlsOverflow() {
+		JdbcUrlStore store = open();
+		ReflectionTestUtils.setField(store, "compactUrls", true);
+		StringBuilder query = new StringBuilder("?utm_source=newsletter");
+		while (query.length() < 3000) {
+			query.append("&p").append(query.length()).append("=x");
+		}
+		String inline = "https://www.orpheussoftware.co.uk/short";
+		String overflowing = "https://www.orpheussoftware.co.uk/campaign" + query;
+		String expiring = "https://www.orpheussoftware.co.uk/offer" + query;
+		long now = System.currentTimeMillis();
+		store.insertBatch(Arrays.asList(new UrlMapping(1, inline), new UrlMapping(2, overflowing), new UrlMapping(3, expiring, now - 1)));
+
+		assertEquals(2, (int) jdbc.queryForObject("SELECT COUNT(*) FROM url_overflow", Integer.class));
+		assertNull(jdbc.queryForObject("SELECT url_rest FROM urls WHERE id = 2", String.class));
+		assertEquals("/short", jdbc.queryForObject("SELECT url_rest FROM urls WHERE id = 1", String.class));
+
+		assertEquals(overflowing, store.findLongUrl(2));
+		assertEquals(inline, store.findLongUrl(1));
+		assertEquals(2, store.findId(overflowing));
+		assertEquals(-1, store.findId(overflowing + "&more"));
+		assertEquals(2, store.findIds(Arrays.asList(inline, overflowing)).size());
+		assertEquals(overflowing, store.findLongUrls(Arrays.asList(1L, 2L)).get(2L));
+
+		assertEquals(Arrays.asList(3L), store.purgeExpired(now, 10));
+		assertEquals(1, (int) jdbc.queryForObject("SELECT COUNT(*) FROM url_overflow", Integer.class));
+	}
+
+	@Test
+	public void testFailedBatchWritesNothing() {
+		JdbcUrlStore store = open();
+		store.insert(5, "https://www.orpheussoftware.co.uk/five");
+		StringBuilder longUrl = new StringBuilder("https://www.orpheussoftware.co.uk/campaign?");
+		while (longUrl.length() < 1000) {
+			longUrl.append("utm_content=x&");
+		}
+
+		assertThrows(DataIntegrityViolationException.class, () -> store.insertBatch(Arrays.asList(
+				new UrlMapping(1, longUrl.toString()), new UrlMapping(2, "https://www.orpheussoftware.co.uk/two"),
+				new UrlMapping(5, "https://www.orpheussoftware.co.uk/again"))));
+		assertNull(store.findLongUrl(1));
+		assertNull(store.findLongUrl(2));
+		assertEquals(0, (int) jdbc.queryForObject("SELECT COUNT(*) FROM url_overflow", Integer.class));
+		assertEquals("https://www.orpheussoftware.co.uk/five", store.findLongUrl(5));
+	}
+}
@@ -0,0 +1,66 @@
+package net.orfdev;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MappedLongHashTableTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void testConcurrentReadersSeeWholeEntries() throws Exception {
+		final int entries = 200_000;
+		final MappedLongHashTable table = MappedLongHashTable.create(directory.resolve("test.idx"), entries * 2);
+		// highest key put so far
+		final AtomicLong written = new AtomicLong();
+		final AtomicReference<String> failure = new AtomicReference<>();
+
+		List<Thread> readers = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			Thread reader = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				while (written.get() < entries && failure.get() == null) {
+					long done = written.get();
+					// a key already put must be found with its own value
+					if (done > 0) {
+						long key = 1 + random.nextLong(done);
+						long found = table.find(key, v -> true);
+						if (found != key * 2) {
+							failure.compareAndSet(null, "key " + key + " found " + found);
+						}
+					}
+					// one being put may not be found yet, but never with a value that isn't its own
+					long next = done + 1;
+					long found = table.find(next, v -> true);
+					if (found != -1 && found != next * 2) {
+						failure.compareAndSet(null, "key " + next + " found " + found + " while being put");
+					}
+				}
+			});
+			readers.add(reader);
+			reader.start();
+		}
+		for (long key = 1; key <= entries; key++) {
+			table.put(key, key * 2);
+			written.set(key);
+		}
+		for (Thread reader : readers) {
+			reader.join();
+		}
+
+		assertTrue(failure.get() == null, failure::get);
+		assertEquals(entries, table.size());
+		table.close();
+	}
+}
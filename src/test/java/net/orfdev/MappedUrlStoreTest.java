@@ -0,0 +1,90 @@
+package net.orfdev;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class MappedUrlStoreTest {
+
+	@TempDir
+	Path directory;
+
+	private MappedUrlStore open() throws Exception {
+		MappedUrlStore store = new MappedUrlStore();
+		ReflectionTestUtils.setField(store, "directory", directory.toString());
+		ReflectionTestUtils.setField(store, "initialCapacity", 16L);
+		store.open();
+		return store;
+	}
+
+	@Test
+	public void testInsertAndLookup() throws Exception {
+		MappedUrlStore store = open();
+		long id = Base62.decode("6JaY2");
+		store.insert(id, "https://www.orpheussoftware.co.uk/about");
+
+		assertEquals("https://www.orpheussoftware.co.uk/about", store.findLongUrl(id));
+		assertEquals(id, store.findId("https://www.orpheussoftware.co.uk/about"));
+		assertNull(store.findLongUrl(id + 1));
+		assertNull(store.findLongUrl(-1));
+		assertEquals(-1, store.findId("https://www.orpheussoftware.co.uk/other"));
+		assertThrows(DuplicateKeyException.class, () -> store.insert(id, "https://www.orpheussoftware.co.uk/other"));
+		store.close();
+	}
+
+	@Test
+	public void testExpiringMappingsAreRefused() throws Exception {
+		MappedUrlStore store = open();
+		assertFalse(store.supportsExpiry());
+		assertThrows(UnsupportedOperationException.class, () -> store.insertBatch(Arrays.asList(
+				new UrlMapping(1, "https://www.orpheussoftware.co.uk/one"),
+				new UrlMapping(2, "https://www.orpheussoftware.co.uk/two", System.currentTimeMillis() + 60000))));
+		assertNull(store.findLongUrl(1));
+	}
+
+	@Test
+	public void testIndexesGrowAndSurviveRestart() throws Exception {
+		MappedUrlStore store = open();
+		List<UrlMapping> batch = new ArrayList<>();
+		for (int i = 1; i <= 5000; i++) {
+			batch.add(new UrlMapping(i * 7919L, "https://www.orpheussoftware.co.uk/" + i));
+		}
+		store.insertBatch(batch);
+		store.close();
+
+		store = open();
+		for (int i = 1; i <= 5000; i++) {
+			assertEquals("https://www.orpheussoftware.co.uk/" + i, store.findLongUrl(i * 7919L));
+		}
+		Map<String, Long> found = store.findIds(Arrays.asList("https://www.orpheussoftware.co.uk/42", "https://www.orpheussoftware.co.uk/none"));
+		assertEquals(1, found.size());
+		assertEquals(42 * 7919L, (long) found.get("https://www.orpheussoftware.co.uk/42"));
+		store.close();
+	}
+
+	@Test
+	public void testIndexIsRebuiltFromLog() throws Exception {
+		MappedUrlStore store = open();
+		store.insert(12345, "https://www.orpheussoftware.co.uk/rebuilt");
+		store.close();
+
+		directory.resolve("urls-short.idx").toFile().delete();
+
+		store = open();
+		assertEquals("https://www.orpheussoftware.co.uk/rebuilt", store.findLongUrl(12345));
+		assertEquals(12345, store.findId("https://www.orpheussoftware.co.uk/rebuilt"));
+		store.close();
+	}
+}
@@ -0,0 +1,116 @@
+package net.orfdev;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+/**
+ * Two in-memory HSQL databases stand in for the replicas and a third for the primary; each holds a row naming it.
+ */
+public class ReplicaRoutingDataSourceTest {
+
+	private DataSource primary;
+	private DataSource replica1;
+	private DataSource replica2;
+
+	@BeforeEach
+	public void setup() {
+		primary = database("primary");
+		replica1 = database("replica1");
+		replica2 = database("replica2");
+	}
+
+	@AfterEach
+	public void tearDown() {
+		for (DataSource dataSource : Arrays.asList(primary, replica1, replica2)) {
+			new JdbcTemplate(dataSource).execute("SHUTDOWN");
+		}
+	}
+
+	private static DataSource database(String name) {
+		DataSource dataSource = new DriverManagerDataSource("jdbc:hsqldb:mem:routing" + name, "SA", "");
+		JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+		jdbc.execute("CREATE TABLE node (name varchar(32))");
+		jdbc.update("INSERT INTO node (name) Values (?)", name);
+		return dataSource;
+	}
+
+	private static String nodeOf(DataSource dataSource) {
+		return new JdbcTemplate(dataSource).queryForObject("SELECT name FROM node", String.class);
+	}
+
+	@Test
+	public void testReadsAreSpreadRoundRobin() {
+		ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(Arrays.asList(replica1, replica2), primary, 30000);
+
+		assertEquals("replica1", nodeOf(routing));
+		assertEquals("replica2", nodeOf(routing));
+		assertEquals("replica1", nodeOf(routing));
+	}
+
+	@Test
+	public void testFailedReplicaIsSkippedUntilRetry() {
+		DownDataSource down = new DownDataSource();
+		ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(Arrays.asList(down, replica2), primary, 30000);
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals("replica2", nodeOf(routing));
+		}
+		// tried once, then left alone for the retry period
+		assertEquals(1, down.attempts.get());
+	}
+
+	@Test
+	public void testPrimaryIsUsedWhenAllReplicasAreDown() {
+		ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(Arrays.asList(new DownDataSource(), new DownDataSource()), primary, 30000);
+		assertEquals("primary", nodeOf(routing));
+		assertEquals("primary", nodeOf(routing));
+	}
+
+	@Test
+	public void testFailsWithoutFallback() {
+		ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(Collections.singletonList(new DownDataSource()), null, 30000);
+		assertThrows(SQLException.class, routing::getConnection);
+		assertThrows(SQLException.class, routing::getConnection);
+	}
+
+
+	@Test
+	public void testExplicitCredentialsAreRouted() throws SQLException {
+		ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(Arrays.asList(new DownDataSource(), replica2), primary, 30000);
+		try (Connection con = routing.getConnection("SA", "")) {
+			assertEquals("replica2", nodeOf(new SingleConnectionDataSource(con, true)));
+		}
+	}
+
+	private static class DownDataSource extends AbstractDataSource {
+
+		final AtomicInteger attempts = new AtomicInteger();
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			attempts.incrementAndGet();
+			throw new SQLException("Connection refused");
+		}
+
+		@Override
+		public Connection getConnection(String username, String password) throws SQLException {
+			return getConnection();
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package net.orfdev;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class RequestExecutorTest {
+
+	private RequestExecutor executor;
+
+	@BeforeEach
+	public void setup() {
+		executor = new RequestExecutor();
+		ReflectionTestUtils.setField(executor, "mode", "async");
+		ReflectionTestUtils.setField(executor, "maxConcurrency", 1);
+		ReflectionTestUtils.setField(executor, "queueCapacity", 1);
+		ReflectionTestUtils.setField(executor, "timeoutMillis", 10000L);
+		ReflectionTestUtils.setField(executor, "virtualThreads", true);
+		executor.init();
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		executor.shutdown();
+	}
+
+	private static MockHttpServletRequest request() {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setAsyncSupported(true);
+		return request;
+	}
+
+	private static CountDownLatch completion(MockHttpServletRequest request) {
+		final CountDownLatch completed = new CountDownLatch(1);
+		request.getAsyncContext().addListener(new AsyncListener() {
+			@Override
+			public void onComplete(AsyncEvent event) {
+				completed.countDown();
+			}
+
+			@Override
+			public void onTimeout(AsyncEvent event) {
+			}
+
+			@Override
+			public void onError(AsyncEvent event) {
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) {
+			}
+		});
+		return completed;
+	}
+
+	@Test
+	public void testHandlerRunsOffTheRequestThread() throws Exception {
+		MockHttpServletRequest request = request();
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		final Thread requestThread = Thread.currentThread();
+		final CountDownLatch go = new CountDownLatch(1);
+
+		executor.execute(request, response, res -> {
+			go.await();
+			res.setStatus(Thread.currentThread() == requestThread ? 500 : 302);
+		});
+		assertTrue(request.isAsyncStarted());
+		CountDownLatch completed = completion(request);
+		go.countDown();
+
+		assertTrue(completed.await(5, TimeUnit.SECONDS));
+		assertEquals(302, response.getStatus());
+	}
+
+	@Test
+	public void testRejectsOnceTheQueueIsFull() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		MockHttpServletRequest running = request();
+		MockHttpServletRequest queued = request();
+		executor.execute(running, new MockHttpServletResponse(), res -> release.await());
+		executor.execute(queued, new MockHttpServletResponse(), res -> res.setStatus(200));
+		CountDownLatch runningCompleted = completion(running);
+		CountDownLatch queuedCompleted = completion(queued);
+
+		MockHttpServletRequest rejected = request();
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		executor.execute(rejected, response, res -> res.setStatus(200));
+		assertFalse(rejected.isAsyncStarted());
+		assertEquals(503, response.getStatus());
+		assertEquals("1", response.getHeader("Retry-After"));
+
+		release.countDown();
+		assertTrue(runningCompleted.await(5, TimeUnit.SECONDS));
+		assertTrue(queuedCompleted.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testFailedHandlerAnswers500() throws Exception {
+		MockHttpServletRequest request = request();
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		final CountDownLatch go = new CountDownLatch(1);
+		executor.execute(request, response, res -> {
+			go.await();
+			throw new IllegalStateException("boom");
+		});
+		CountDownLatch completed = completion(request);
+		go.countDown();
+
+		assertTrue(completed.await(5, TimeUnit.SECONDS));
+		assertEquals(500, response.getStatus());
+	}
+}
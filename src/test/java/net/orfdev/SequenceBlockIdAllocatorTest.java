@@ -0,0 +1,63 @@
+package net.orfdev;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class SequenceBlockIdAllocatorTest {
+
+	private static final int BLOCK_SIZE = 1000;
+
+	private JdbcTemplate jdbctemplate;
+	private SequenceBlockIdAllocator allocator;
+
+	@BeforeEach
+	public void setup() {
+		jdbctemplate = new JdbcTemplate(new DriverManagerDataSource("jdbc:hsqldb:mem:sequenceblocktest", "SA", ""));
+		allocator = new SequenceBlockIdAllocator();
+		ReflectionTestUtils.setField(allocator, "jdbctemplate", jdbctemplate);
+		ReflectionTestUtils.setField(allocator, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(allocator, "blockSize", BLOCK_SIZE);
+		ReflectionTestUtils.setField(allocator, "scrambleKey", "0x2545F4914F6CDD1D");
+		allocator.init();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		jdbctemplate.execute("SHUTDOWN");
+	}
+
+	@Test
+	public void testShortLivedThreadsShareTheBlock() throws Exception {
+		// one id per thread, as with a virtual thread per request
+		final int threads = 2500;
+		final Set<Long> ids = ConcurrentHashMap.newKeySet();
+		List<Thread> started = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			Thread thread = new Thread(() -> ids.add(allocator.nextId()));
+			started.add(thread);
+			thread.start();
+		}
+		for (Thread thread : started) {
+			thread.join();
+		}
+
+		assertEquals(threads, ids.size());
+		// three blocks leased for 2500 ids, none of them wasted on a thread that has gone
+		long next = jdbctemplate.queryForObject("SELECT next_value FROM id_blocks WHERE name = ?", Long.class,
+				SequenceBlockIdAllocator.SEQUENCE_NAME);
+		assertEquals(1 + 3 * BLOCK_SIZE, next);
+	}
+}
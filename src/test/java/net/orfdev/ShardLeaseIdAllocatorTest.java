@@ -0,0 +1,153 @@
+package net.orfdev;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Starts several application contexts against one database, as several nodes behind a load balancer would be,
+ * and shortens urls on all of them at once.
+ */
+public class ShardLeaseIdAllocatorTest {
+
+	private static final String DB_URL = "jdbc:hsqldb:mem:shardleasetest";
+	private static final int NODES = 3;
+	private static final int URLS_PER_NODE = 2000;
+
+	private final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+
+	@AfterEach
+	public void tearDown() {
+		for (ConfigurableApplicationContext node : nodes) {
+			node.close();
+		}
+		new JdbcTemplate(new DriverManagerDataSource(DB_URL, "SA", "")).execute("SHUTDOWN");
+	}
+
+	private ConfigurableApplicationContext startNode() {
+		ConfigurableApplicationContext node = new SpringApplicationBuilder(Application.class).run(
+				"--server.port=0",
+				"--spring.datasource.url=" + DB_URL,
+				"--spring.datasource.username=SA",
+				"--spring.datasource.password=",
+				"--urlshort.id.allocator=shard",
+				"--urlshort.id.shards=64",
+				"--urlshort.id.block-size=500",
+				"--urlshort.ratelimit.enabled=false");
+		nodes.add(node);
+		return node;
+	}
+
+	@Test
+	public void testNodesShortenWithoutCollisions() throws Exception {
+		List<MockMvc> mvcs = new ArrayList<>();
+		Set<Integer> shards = new HashSet<>();
+		for (int i = 0; i < NODES; i++) {
+			ConfigurableApplicationContext node = startNode();
+			mvcs.add(MockMvcBuilders.webAppContextSetup((WebApplicationContext) node).build());
+			shards.add(((ShardLeaseIdAllocator) node.getBean(IdAllocator.class)).getShard());
+		}
+		assertEquals(NODES, shards.size());
+
+		final ObjectMapper objectMapper = new ObjectMapper();
+		final Set<String> shortUrls = ConcurrentHashMap.newKeySet();
+		ExecutorService pool = Executors.newFixedThreadPool(4 * NODES);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int n = 0; n < NODES; n++) {
+			final MockMvc mvc = mvcs.get(n);
+			final int node = n;
+			for (int t = 0; t < 4; t++) {
+				final int thread = t;
+				futures.add(pool.submit(() -> {
+					for (int i = thread; i < URLS_PER_NODE; i += 4) {
+						String url = "https://www.orpheussoftware.co.uk/node" + node + "/" + i;
+						String body = mvc.perform(get("/json/shorten").param("url", url))
+								.andExpect(status().isOk())
+								.andReturn().getResponse().getContentAsString();
+						shortUrls.add(objectMapper.readTree(body).get("shortUrl").asText());
+					}
+					return null;
+				}));
+			}
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		pool.shutdown();
+
+		assertEquals(NODES * URLS_PER_NODE, shortUrls.size());
+		JdbcTemplate jdbc = nodes.get(0).getBean(JdbcTemplate.class);
+		assertEquals(NODES * URLS_PER_NODE, (int) jdbc.queryForObject("SELECT COUNT(*) FROM urls", Integer.class));
+		for (ConfigurableApplicationContext node : nodes) {
+			assertEquals(0.0, node.getBean(MeterRegistry.class).counter("urlshort.id.shard.claim.retries").count());
+		}
+	}
+
+	@Test
+	public void testShardOfAStoppedNodeIsClaimedAfterItsLeaseExpires() {
+		ConfigurableApplicationContext first = startNode();
+		ShardLeaseIdAllocator firstAllocator = (ShardLeaseIdAllocator) first.getBean(IdAllocator.class);
+		int shard = firstAllocator.getShard();
+		IdScrambler scrambler = new IdScrambler(Long.decode("0x2545F4914F6CDD1D"));
+		long firstId = scrambler.unscramble(firstAllocator.nextId());
+
+		// the first node looks dead: its lease ran out, and every other shard is held by live nodes
+		JdbcTemplate jdbc = first.getBean(JdbcTemplate.class);
+		jdbc.update("UPDATE id_shards SET lease_expires = 0 WHERE shard = ?", shard);
+		jdbc.update("UPDATE id_shards SET owner = 'live', lease_expires = ? WHERE shard <> ?", Long.MAX_VALUE, shard);
+		long reserved = jdbc.queryForObject("SELECT next_value FROM id_shards WHERE shard = ?", Long.class, shard);
+
+		ConfigurableApplicationContext second = startNode();
+		ShardLeaseIdAllocator secondAllocator = (ShardLeaseIdAllocator) second.getBean(IdAllocator.class);
+		assertEquals(shard, secondAllocator.getShard());
+		// the second node starts after the block the first one reserved
+		assertTrue(firstId < reserved);
+		assertTrue(scrambler.unscramble(secondAllocator.nextId()) >= reserved);
+
+		// the first node finds out on its next heartbeat and moves to another shard
+		firstAllocator.heartbeat();
+		assertEquals(-1, firstAllocator.getShard());
+	}
+
+	@Test
+	public void testIdsLeasedFromTheSequenceAreSkipped() {
+		// a database that was on the sequence allocator until now
+		long shardSize = (IdScrambler.MASK + 1) / 64;
+		long issuedUpTo = 3 * shardSize + 17;
+		JdbcTemplate db = new JdbcTemplate(new DriverManagerDataSource(DB_URL, "SA", ""));
+		db.execute("CREATE TABLE id_blocks (name varchar(32) Primary Key, next_value BIGINT NOT NULL)");
+		db.update("INSERT INTO id_blocks (name, next_value) Values (?,?)", SequenceBlockIdAllocator.SEQUENCE_NAME, issuedUpTo);
+
+		ConfigurableApplicationContext node = startNode();
+		JdbcTemplate jdbc = node.getBean(JdbcTemplate.class);
+		assertEquals(3, (int) jdbc.queryForObject("SELECT COUNT(*) FROM id_shards WHERE next_value = range_end", Integer.class));
+		// more if this node claimed it and reserved a block
+		assertTrue(jdbc.queryForObject("SELECT next_value FROM id_shards WHERE shard = 3", Long.class) >= issuedUpTo);
+		IdScrambler scrambler = new IdScrambler(Long.decode("0x2545F4914F6CDD1D"));
+		assertTrue(scrambler.unscramble(node.getBean(IdAllocator.class).nextId()) >= issuedUpTo);
+	}
+}
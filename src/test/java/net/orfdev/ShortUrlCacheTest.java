@@ -0,0 +1,112 @@
+package net.orfdev;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ShortUrlCacheTest {
+
+	private static final long ID = Base62.decode("6JaY2");
+
+	private ShortUrlCache cache;
+
+	@BeforeEach
+	public void setup() {
+		cache = new ShortUrlCache();
+		ReflectionTestUtils.setField(cache, "maximumSize", 32);
+		ReflectionTestUtils.setField(cache, "ttlSeconds", 600L);
+		ReflectionTestUtils.setField(cache, "negativeTtlSeconds", 600L);
+		cache.init();
+	}
+
+	@Test
+	public void testHitAndMiss() {
+		assertNull(cache.get(ID));
+		cache.put(ID, "https://www.orpheussoftware.co.uk/about");
+
+		ShortUrlCache.Entry entry = cache.get(ID);
+		assertNotNull(entry);
+		assertEquals("https://www.orpheussoftware.co.uk/about", entry.getLongUrl());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void testNegativeEntryDoesNotHidePositive() {
+		cache.put(ID, null);
+		assertNotNull(cache.get(ID));
+		assertNull(cache.get(ID).getLongUrl());
+
+		cache.put(ID, "https://www.orpheussoftware.co.uk/about");
+		cache.put(ID, null);
+		assertEquals("https://www.orpheussoftware.co.uk/about", cache.get(ID).getLongUrl());
+	}
+
+	@Test
+	public void testExpiringMappingIsNotCachedPastItsExpiry() throws Exception {
+		cache.put(ID, "https://www.orpheussoftware.co.uk/about", System.currentTimeMillis() + 50);
+		assertEquals("https://www.orpheussoftware.co.uk/about", cache.get(ID).getLongUrl());
+		final int[] visited = new int[1];
+		cache.forEach((id, longUrl) -> visited[0]++);
+		assertEquals(0, visited[0]);
+
+		Thread.sleep(60);
+		assertNull(cache.get(ID));
+
+		cache.put(ID + 1, "https://www.orpheussoftware.co.uk/gone", System.currentTimeMillis() - 1);
+		assertNull(cache.get(ID + 1).getLongUrl());
+	}
+
+	@Test
+	public void testUrlsAreDecodedWhole() {
+		ReflectionTestUtils.setField(cache, "maximumSize", 16 * 100);
+		cache.init();
+		String[] urls = {
+				"https://www.orpheussoftware.co.uk/about?utm_source=mail&utm_campaign=spring",
+				"https://www.orpheussoftware.co.uk",
+				"http://user@shop.orpheussoftware.co.uk:8443?q=caf\u00e9#top",
+				"not a url at all" };
+		for (int i = 0; i < urls.length; i++) {
+			cache.put(i, urls[i]);
+		}
+		for (int i = 0; i < urls.length; i++) {
+			assertEquals(urls[i], cache.get(i).getLongUrl());
+		}
+		assertEquals("https://www.orpheussoftware.co.uk", new UrlMapping(0, urls[0]).getParsedUrl().getOrigin());
+		assertNull(new UrlMapping(3, urls[3]).getParsedUrl());
+	}
+
+	@Test
+	public void testSizeIsBounded() {
+		for (int i = 0; i < 1000; i++) {
+			cache.put(i, "https://www.orpheussoftware.co.uk/" + i);
+		}
+		assertEquals(32, cache.size());
+		assertEquals(1000 - 32, cache.getEvictionCount());
+	}
+
+	@Test
+	public void testInvalidateKeepsOtherKeysReachable() {
+		// room for everything, so only invalidate removes entries
+		ReflectionTestUtils.setField(cache, "maximumSize", 16 * 1000);
+		cache.init();
+		for (long id = 0; id < 1000; id++) {
+			cache.put(id, "https://www.orpheussoftware.co.uk/" + id);
+		}
+		for (long id = 0; id < 1000; id += 3) {
+			cache.invalidate(id);
+		}
+		for (long id = 0; id < 1000; id++) {
+			ShortUrlCache.Entry entry = cache.get(id);
+			if (id % 3 == 0) {
+				assertNull(entry);
+			} else {
+				assertEquals("https://www.orpheussoftware.co.uk/" + id, entry.getLongUrl());
+			}
+		}
+	}
+}
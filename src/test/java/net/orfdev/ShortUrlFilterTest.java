@@ -0,0 +1,81 @@
+package net.orfdev;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ShortUrlFilterTest {
+
+	@TempDir
+	Path directory;
+
+	private MappedUrlStore store;
+	private ShortUrlFilter filter;
+
+	@BeforeEach
+	public void setup() throws Exception {
+		store = new MappedUrlStore();
+		ReflectionTestUtils.setField(store, "directory", directory.toString());
+		ReflectionTestUtils.setField(store, "initialCapacity", 16L);
+		store.open();
+
+		filter = new ShortUrlFilter();
+		ReflectionTestUtils.setField(filter, "store", store);
+		ReflectionTestUtils.setField(filter, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(filter, "enabled", true);
+		ReflectionTestUtils.setField(filter, "falsePositiveRate", 0.001);
+		ReflectionTestUtils.setField(filter, "minimumSize", 1000L);
+		ReflectionTestUtils.setField(filter, "rebuildIntervalMillis", 0L);
+		filter.init();
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		filter.shutdown();
+		store.close();
+	}
+
+	@Test
+	public void testEverythingIsLetThroughUntilBuilt() {
+		assertTrue(filter.mightContain(12345));
+	}
+
+	@Test
+	public void testStoredAndAddedIdsAreKnown() {
+		for (long id = 1; id <= 500; id++) {
+			store.insert(id * 7919, "https://www.orpheussoftware.co.uk/" + id);
+		}
+		filter.run(null);
+
+		for (long id = 1; id <= 500; id++) {
+			assertTrue(filter.mightContain(id * 7919));
+		}
+		assertFalse(filter.mightContain(Base62.decode("zzzzzz")));
+
+		long added = Base62.decode("6JaY2");
+		store.insert(added, "https://www.orpheussoftware.co.uk/about");
+		filter.add(added);
+		assertTrue(filter.mightContain(added));
+	}
+
+	@Test
+	public void testRebuildPicksUpOtherNodesInserts() {
+		filter.run(null);
+		long elsewhere = Base62.decode("6JaY2");
+		// written by another node: this one hasn't been told
+		store.insert(elsewhere, "https://www.orpheussoftware.co.uk/about");
+		assertFalse(filter.mightContain(elsewhere));
+
+		filter.rebuild();
+		assertTrue(filter.mightContain(elsewhere));
+	}
+}
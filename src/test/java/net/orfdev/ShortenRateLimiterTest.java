@@ -0,0 +1,133 @@
+package net.orfdev;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ShortenRateLimiterTest {
+
+	private ShortenRateLimiter limiter;
+
+	@BeforeEach
+	public void setup() {
+		limiter = new ShortenRateLimiter();
+		ReflectionTestUtils.setField(limiter, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(limiter, "enabled", true);
+		// slow enough that no token comes back while the test runs
+		ReflectionTestUtils.setField(limiter, "clientRate", 0.01);
+		ReflectionTestUtils.setField(limiter, "clientBurst", 3);
+		ReflectionTestUtils.setField(limiter, "bulkRate", 0.01);
+		ReflectionTestUtils.setField(limiter, "globalRate", 0.01);
+		ReflectionTestUtils.setField(limiter, "globalBurst", 5);
+		ReflectionTestUtils.setField(limiter, "maxClients", 2);
+		ReflectionTestUtils.setField(limiter, "trustForwardedFor", false);
+		limiter.init();
+	}
+
+	private MockHttpServletResponse shorten(String remoteAddr, String forwardedFor) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/json/shorten");
+		request.setRemoteAddr(remoteAddr);
+		if (forwardedFor != null) {
+			request.addHeader("X-Forwarded-For", forwardedFor);
+		}
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		boolean admitted = limiter.preHandle(request, response, null);
+		assertEquals(admitted, response.getStatus() == 200);
+		return response;
+	}
+
+	@Test
+	public void testClientIsLimitedOthersAreNot() {
+		for (int i = 0; i < 3; i++) {
+			assertEquals(200, shorten("10.0.0.1", null).getStatus());
+		}
+		MockHttpServletResponse refused = shorten("10.0.0.1", null);
+		assertEquals(429, refused.getStatus());
+		assertTrue(Long.parseLong(refused.getHeader("Retry-After")) >= 1);
+
+		assertEquals(200, shorten("10.0.0.2", null).getStatus());
+	}
+
+	@Test
+	public void testGlobalLimit() {
+		for (int i = 0; i < 3; i++) {
+			assertEquals(200, shorten("10.0.0.1", null).getStatus());
+		}
+		assertEquals(200, shorten("10.0.0.2", null).getStatus());
+		assertEquals(200, shorten("10.0.0.2", null).getStatus());
+		// 10.0.0.3 has tokens left, the service as a whole doesn't
+		assertEquals(429, shorten("10.0.0.3", null).getStatus());
+	}
+
+	@Test
+	public void testForwardedForOnlyWhenTrusted() {
+		for (int i = 0; i < 3; i++) {
+			shorten("10.0.0.1", "192.168.1." + i);
+		}
+		// behind an untrusted header every request is the proxy's
+		assertEquals(429, shorten("10.0.0.1", "192.168.1.99").getStatus());
+
+		ReflectionTestUtils.setField(limiter, "trustForwardedFor", true);
+		assertEquals(200, shorten("10.0.0.1", "192.168.1.99").getStatus());
+	}
+
+	@Test
+	public void testForwardedForIsKeyedOnTheProxysEntry() {
+		ReflectionTestUtils.setField(limiter, "trustForwardedFor", true);
+		// the client can put anything before the address the proxy appends
+		for (int i = 0; i < 3; i++) {
+			assertEquals(200, shorten("10.0.0.1", "203.0.113." + i + ", 192.168.1.5").getStatus());
+		}
+		assertEquals(429, shorten("10.0.0.1", "203.0.113.99, 192.168.1.5").getStatus());
+	}
+
+	@Test
+	public void testTrackedClientsAreBounded() {
+		long now = System.nanoTime();
+		TokenBucket first = limiter.bucketFor("a", now);
+		limiter.bucketFor("b", now);
+		TokenBucket overflowC = limiter.bucketFor("c", now);
+		TokenBucket overflowD = limiter.bucketFor("d", now);
+
+		assertEquals(2, limiter.getTrackedClients());
+		assertSame(overflowC, overflowD);
+		assertSame(first, limiter.bucketFor("a", now));
+
+		// "a" used a token so it is kept, "b" is full again and dropped
+		first.tryAcquire(now);
+		limiter.sweep();
+		assertEquals(1, limiter.getTrackedClients());
+		assertFalse(limiter.bucketFor("c", now) == overflowC);
+	}
+
+	@Test
+	public void testBulkIsSlowedDownNotRefused() {
+		ReflectionTestUtils.setField(limiter, "bulkRate", 1000.0);
+		limiter.init();
+		MockHttpServletRequest bulk = new MockHttpServletRequest("POST", "/json/shorten/bulk");
+		bulk.setRemoteAddr("10.0.0.1");
+
+		// the first chunk fits in the burst, each one after it waits half a second at 1000 urls/s
+		long start = System.nanoTime();
+		for (int i = 0; i < 3; i++) {
+			assertTrue(limiter.acquireBulk(bulk, UtilityCheck.BULK_CHUNK_SIZE));
+		}
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(400));
+
+		// the bulk rate is apart from the client's shortens, and the chunks took one global token each
+		assertEquals(200, shorten("10.0.0.1", null).getStatus());
+		assertEquals(200, shorten("10.0.0.2", null).getStatus());
+		assertEquals(429, shorten("10.0.0.3", null).getStatus());
+	}
+}
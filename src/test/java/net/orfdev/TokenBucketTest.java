@@ -0,0 +1,87 @@
+package net.orfdev;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class TokenBucketTest {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	public void testBurstThenRate() {
+		long now = 1000 * SECOND;
+		TokenBucket bucket = new TokenBucket(10, 5, now);
+
+		for (int i = 0; i < 5; i++) {
+			assertEquals(0, bucket.tryAcquire(now));
+		}
+		long wait = bucket.tryAcquire(now);
+		assertEquals(SECOND / 10, wait);
+
+		// one token back every 100ms
+		assertTrue(bucket.tryAcquire(now + SECOND / 10 - 1) > 0);
+		assertEquals(0, bucket.tryAcquire(now + SECOND / 10));
+		assertTrue(bucket.tryAcquire(now + SECOND / 10) > 0);
+	}
+
+	@Test
+	public void testIdleOnceRefilled() {
+		long now = 1000 * SECOND;
+		TokenBucket bucket = new TokenBucket(10, 5, now);
+		assertTrue(bucket.isIdle(now));
+		bucket.tryAcquire(now);
+		assertFalse(bucket.isIdle(now));
+		assertTrue(bucket.isIdle(now + SECOND / 10));
+
+		// a long pause doesn't bank more than the burst
+		now += 3600 * SECOND;
+		for (int i = 0; i < 5; i++) {
+			assertEquals(0, bucket.tryAcquire(now));
+		}
+		assertTrue(bucket.tryAcquire(now) > 0);
+	}
+
+	@Test
+	public void testConcurrentAcquiresNeverExceedTheBurst() throws Exception {
+		final long now = 1000 * SECOND;
+		final TokenBucket bucket = new TokenBucket(1, 1000, now);
+		final AtomicInteger granted = new AtomicInteger();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < 10000; i++) {
+					if (bucket.tryAcquire(now) == 0) {
+						granted.incrementAndGet();
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(1000, granted.get());
+	}
+
+	@Test
+	public void testTakingMoreThanTheBurstGoesIntoDebt() {
+		long now = 1000 * SECOND;
+		TokenBucket bucket = new TokenBucket(10, 5, now);
+
+		assertEquals(0, bucket.tryAcquire(now, 20));
+		// two seconds' worth taken, the burst's half second of it was there already
+		assertEquals(16 * SECOND / 10, bucket.tryAcquire(now));
+		assertEquals(16 * SECOND / 10, bucket.tryAcquire(now, 20));
+		assertEquals(0, bucket.tryAcquire(now + 16 * SECOND / 10));
+		assertFalse(bucket.isIdle(now + 2 * SECOND));
+	}
+}
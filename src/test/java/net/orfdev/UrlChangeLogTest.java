@@ -0,0 +1,126 @@
+package net.orfdev;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+/**
+ * Starts several application contexts against one database, each with its own cache and bloom filter, and checks
+ * that a change made through one of them reaches the others through the change log.
+ */
+public class UrlChangeLogTest {
+
+	private static final String DB_URL = "jdbc:hsqldb:mem:changelogtest";
+	private static final long MAX_LAG_MILLIS = 3000;
+
+	private final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+	private final JdbcTemplate jdbc = new JdbcTemplate(new DriverManagerDataSource(DB_URL, "SA", ""));
+
+	@AfterEach
+	public void tearDown() {
+		for (ConfigurableApplicationContext node : nodes) {
+			node.close();
+		}
+		jdbc.execute("SHUTDOWN");
+	}
+
+	private ConfigurableApplicationContext startNode() {
+		ConfigurableApplicationContext node = new SpringApplicationBuilder(Application.class).run(
+				"--server.port=0",
+				"--spring.datasource.url=" + DB_URL,
+				"--spring.datasource.username=SA",
+				"--spring.datasource.password=",
+				"--urlshort.changes.enabled=true",
+				"--urlshort.changes.poll-interval-millis=100",
+				"--urlshort.changes.gap-timeout-millis=1000",
+				"--urlshort.bloom.enabled=true",
+				"--urlshort.ratelimit.enabled=false");
+		nodes.add(node);
+		return node;
+	}
+
+	private static MockMvc mvc(ConfigurableApplicationContext node) {
+		return MockMvcBuilders.webAppContextSetup((WebApplicationContext) node).build();
+	}
+
+	/**
+	 * Polls the short url on the node until it answers with the status, and returns how long that took.
+	 */
+	private static long awaitStatus(MockMvc mvc, String shortUrl, int expected) throws Exception {
+		long start = System.currentTimeMillis();
+		while (mvc.perform(get("/{shortUrl}", shortUrl)).andReturn().getResponse().getStatus() != expected) {
+			assertTrue(System.currentTimeMillis() - start < MAX_LAG_MILLIS, "No " + expected + " for " + shortUrl + " in time");
+			Thread.sleep(20);
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	@Test
+	public void testNodesConverge() throws Exception {
+		List<MockMvc> mvcs = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			mvcs.add(mvc(startNode()));
+		}
+
+		// the other nodes' bloom filters were built before this insert, only the change log tells them about it
+		String body = mvcs.get(0).perform(get("/json/shorten").param("url", "https://www.orpheussoftware.co.uk/about/changes"))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getContentAsString();
+		String shortUrl = body.replaceAll(".*http://localhost:8080/([0-9a-zA-Z]+).*", "$1");
+		for (MockMvc mvc : mvcs) {
+			awaitStatus(mvc, shortUrl, 302);
+		}
+
+		// every node now has the mapping cached; a delete made through node 0 has to evict it everywhere
+		final long id = Base62.decode(shortUrl);
+		final UrlChangeLog changeLog = nodes.get(0).getBean(UrlChangeLog.class);
+		final JdbcTemplate nodeJdbc = nodes.get(0).getBean(JdbcTemplate.class);
+		changeLog.inTransaction(() -> {
+			nodeJdbc.update("DELETE FROM urls WHERE id = ?", id);
+			changeLog.record(UrlChangeLog.DELETE, Collections.singletonList(id));
+			return null;
+		});
+		for (MockMvc mvc : mvcs) {
+			awaitStatus(mvc, shortUrl, 404);
+		}
+	}
+
+	@Test
+	public void testPositionWaitsForGapsThenSkipsThem() throws Exception {
+		UrlChangeLog changeLog = startNode().getBean(UrlChangeLog.class);
+		changeLog.poll();
+		long start = changeLog.getPosition();
+
+		// start + 2 is committed before start + 1, as a slower transaction would be
+		jdbc.update("INSERT INTO url_changes (seq, id, op, changed_at) Values (?,?,?,?)", start + 2, 2, "I", System.currentTimeMillis());
+		changeLog.poll();
+		assertEquals(start, changeLog.getPosition());
+
+		jdbc.update("INSERT INTO url_changes (seq, id, op, changed_at) Values (?,?,?,?)", start + 1, 1, "I", System.currentTimeMillis());
+		changeLog.poll();
+		assertEquals(start + 2, changeLog.getPosition());
+
+		// start + 3 never commits
+		jdbc.update("INSERT INTO url_changes (seq, id, op, changed_at) Values (?,?,?,?)", start + 4, 4, "I", System.currentTimeMillis());
+		changeLog.poll();
+		assertEquals(start + 2, changeLog.getPosition());
+		Thread.sleep(1100);
+		changeLog.poll();
+		assertEquals(start + 4, changeLog.getPosition());
+	}
+}
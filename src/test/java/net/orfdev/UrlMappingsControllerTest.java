@@ -6,6 +6,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.DEFINED_PORT;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -117,6 +118,121 @@ class UrlMappingsControllerTest {
     //}
 
 
+    @Test
+    public void testShortenUrlsInBulk() throws Exception {
+        String body = "https://www.orpheussoftware.co.uk/about/bulk1\n"
+                + "not a url\n"
+                + "\n"
+                + "https://www.orpheussoftware.co.uk/about/bulk1\n"
+                + "https://www.orpheussoftware.co.uk/about/bulk2\n";
+
+        MvcResult mvcResult = this.mvc.perform(post("/json/shorten/bulk").contentType(MediaType.TEXT_PLAIN).content(body))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        String[] lines = mvcResult.getResponse().getContentAsString().split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].contains("\"shortUrl\":\"http://localhost:8080/"));
+        assertTrue(lines[1].contains("\"error\""));
+        // the same long url is only shortened once
+        assertEquals(lines[0], lines[2]);
+        assertTrue(lines[3].contains("bulk2"));
+    }
+
+    @Test
+    public void testShortenUrlsInBulkFromJsonArray() throws Exception {
+        String body = "[\"https://www.orpheussoftware.co.uk/about/bulk3\", \"https://www.orpheussoftware.co.uk/about/bulk4\"]";
+
+        MvcResult mvcResult = this.mvc.perform(post("/json/shorten/bulk").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        String[] lines = mvcResult.getResponse().getContentAsString().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].contains("bulk3"));
+        assertTrue(lines[1].contains("bulk4"));
+    }
+
+
+    @Test
+    public void testMapUrlRedirectsToLongUrl() throws Exception {
+        String longUrl = "https://www.orpheussoftware.co.uk/about/redirect";
+        MvcResult shortened = this.mvc.perform(get("/json/shorten").param("url", longUrl))
+                .andExpect(status().isOk())
+                .andReturn();
+        String shortUrl = shortened.getResponse().getContentAsString().replaceAll(".*http://localhost:8080/([0-9a-zA-Z]+).*", "$1");
+
+        this.mvc.perform(get("/{shortUrl}", shortUrl))
+                .andExpect(status().isFound())
+                .andExpect(header().string("Location", longUrl))
+                .andExpect(header().string("Cache-Control", "no-cache"));
+
+        this.mvc.perform(get("/{shortUrl}/health", shortUrl))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.recordCount").value(1))
+                .andExpect(jsonPath("$.clickCount").value(1));
+    }
+
+    @Test
+    public void testExpiringLinkStopsRedirecting() throws Exception {
+        String longUrl = "https://www.orpheussoftware.co.uk/about/campaign";
+        String expiring = this.mvc.perform(get("/json/shorten").param("url", longUrl).param("ttl", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.expiresAt").exists())
+                .andReturn().getResponse().getContentAsString().replaceAll(".*http://localhost:8080/([0-9a-zA-Z]+).*", "$1");
+        String permanent = this.mvc.perform(get("/json/shorten").param("url", longUrl))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString().replaceAll(".*http://localhost:8080/([0-9a-zA-Z]+).*", "$1");
+        assertTrue(!expiring.equals(permanent));
+
+        this.mvc.perform(get("/{shortUrl}", expiring))
+                .andExpect(status().isFound())
+                .andExpect(header().string("Location", longUrl));
+
+        Thread.sleep(1100);
+        this.mvc.perform(get("/{shortUrl}", expiring))
+                .andExpect(status().isNotFound());
+        this.mvc.perform(get("/{shortUrl}", permanent))
+                .andExpect(status().isFound());
+    }
+
+    @Test
+    public void testMapUrlReturnsNotFoundForUnknownCode() throws Exception {
+        this.mvc.perform(get("/{shortUrl}", "unknownCode"))
+                .andExpect(status().isNotFound())
+                .andExpect(header().doesNotExist("Location"));
+    }
+
+
+    @Test
+    public void testHotPathsArePublishedToPrometheus() throws Exception {
+        this.mvc.perform(get("/{shortUrl}", "unknownCode2"))
+                .andExpect(status().isNotFound());
+
+        String scrape = this.mvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        assertTrue(scrape.contains("urlshort_redirect_seconds_bucket"));
+        assertTrue(scrape.contains("urlshort_redirect_not_found_total"));
+        assertTrue(scrape.contains("urlshort_db_seconds_bucket{operation=\"lookupByShortUrl\""));
+        assertTrue(scrape.contains("urlshort_validation_rejected_total"));
+        assertTrue(scrape.contains("jdbc_connections_active"));
+    }
+
+
+    @Test
+    public void testStatsAreServedFromMemory() throws Exception {
+        this.mvc.perform(get("/actuator/urlstats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.cacheSize").exists());
+
+        this.mvc.perform(get("/actuator/health"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").exists());
+    }
+
+
     @Test
     public void testHealthCheckManagementURL() throws Exception {
         String request = "/{shortUrl}/health";
@@ -125,6 +241,7 @@ class UrlMappingsControllerTest {
         MvcResult mvcResult =  this.mvc.perform(get(request,shortUrl))
                 .andDo(print()).andExpect(status().isOk())
                 .andExpect(jsonPath("$.recordCount").value(0))
+                .andExpect(jsonPath("$.clickCount").value(0))
                 .andReturn();
         assertEquals(MediaType.APPLICATION_JSON_VALUE, mvcResult.getResponse().getContentType());
         Assert.assertEquals(MediaType.APPLICATION_JSON_VALUE,